@@ -24,11 +24,19 @@ package com.nosoop.json;
  * SOFTWARE.
  *
  */
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -36,7 +44,7 @@ import org.json.JSONTokener;
 
 /**
  * Provides static methods to convert a file from the Valve Data Format (VDF) to
- * an equivalent JSON representation.
+ * an equivalent JSON representation, and back.
  *
  * Support is basic and disgusting. It also makes certain assumptions of the
  * file (e.g., it assumes every odd-numbered string is a key, while the string
@@ -72,6 +80,20 @@ public class VDF {
      * skipping C++ styled comments.
      */
     public static final char NEWLINE = '\n';
+    /**
+     * Hash character. Used to start the <code>#include</code> and
+     * <code>#base</code> directives.
+     */
+    public static final char HASH = '#';
+    /**
+     * Opening bracket character. Used to start a conditional such as
+     * <code>[$WIN32]</code>.
+     */
+    public static final char L_BRACKET = '[';
+    /**
+     * Closing bracket character. Used to end a conditional.
+     */
+    public static final char R_BRACKET = ']';
 
     /**
      * Attempts to convert what is assumed to be a JSONTokener containing a
@@ -85,226 +107,611 @@ public class VDF {
      */
     public static JSONObject toJSONObject(JSONTokener x, boolean convertArrays)
             throws JSONException {
-        JSONObject jo = new JSONObject();
-
-        while (x.more()) {
-            char c = x.nextClean();
-
-            switch (c) {
-                case QUOTE:
-                    // Case that it is a String key, expect its value next.
-                    String key = x.nextString(QUOTE);
-
-                    char ctl = x.nextClean();
-                    if (ctl == SLASH) {
-                        if (x.next() == SLASH) {
-                            // Comment -- ignore the rest of the line.
-                            x.skipTo(NEWLINE);
-                            ctl = x.nextClean();
-                        }
-                    }
+        return toJSONObject(x, new VDFOptions().setConvertArrays(convertArrays));
+    }
 
-                    // Case that the next thing is another String value; add.
-                    if (ctl == QUOTE) {
-                        String value = getVDFValue(x, QUOTE);
-                        jo.put(key, value);
-                    } // Or a nested KeyValue pair. Parse then add.
-                    else if (ctl == L_BRACE) {
-                        jo.put(key, toJSONObject(x, convertArrays));
-                    }
+    /**
+     * Attempts to convert what is assumed to be a JSONTokener containing a
+     * String with VDF text into the JSON format.
+     *
+     * @param x A JsonTokener instantiated with VDF data.
+     * @param options The conversion options.
+     * @return A JSON representation of the assumed-VDF data.
+     * @throws JSONException Parse exception?
+     */
+    public static JSONObject toJSONObject(JSONTokener x, VDFOptions options)
+            throws JSONException {
+        return toJSONObject(new VDFCharLexer(x), options);
+    }
 
-                    // TODO Add support for bracketed tokens?
-
-                    break;
-                case R_BRACE:
-                    // Case that we are done parsing this KeyValue collection.
-                    // Return it (back to the calling toJSONObject() method).
-                    return jo;
-                case '\0':
-                    // Disregard null character.
-                    break;
-                case SLASH:
-                    if (x.next() == SLASH) {
-                        // It's a comment. Skip to the next line.
-                        x.skipTo(NEWLINE);
-                        break;
-                    }
-                default:
-                    String fmtError = "Unexpected character \'%s\'";
-                    throw x.syntaxError(String.format(fmtError, c));
+    /**
+     * Attempts to convert what is assumed to be a String containing VDF text
+     * into the JSON format.
+     *
+     * @param string Input data, assumed to be in the Valve Data Format.
+     * @param convertArrays Whether or not to convert VDF-formatted arrays into
+     * JSONArrays.
+     * @return A JSON representation of the assumed-VDF data.
+     * @throws JSONException Parse exception?
+     */
+    public static JSONObject toJSONObject(String string, boolean convertArrays)
+            throws JSONException {
+        return toJSONObject(string,
+                new VDFOptions().setConvertArrays(convertArrays));
+    }
+
+    /**
+     * Attempts to convert what is assumed to be a String containing VDF text
+     * into the JSON format.
+     *
+     * @param string Input data, assumed to be in the Valve Data Format.
+     * @param options The conversion options.
+     * @return A JSON representation of the assumed-VDF data.
+     * @throws JSONException Parse exception?
+     */
+    public static JSONObject toJSONObject(String string, VDFOptions options)
+            throws JSONException {
+        char[] data = string.toCharArray();
+        if (options.getPool() != null && options.getIncludes() == null) {
+            JSONObject result = VDFParallel.build(data, options);
+            if (result != null) {
+                return result;
             }
         }
+        return toJSONObject(new VDFCharLexer(data, 0, data.length), options);
+    }
+
+    /**
+     * Attempts to convert what is assumed to be a ByteBuffer containing UTF-8
+     * encoded VDF text into the JSON format. The remaining bytes of the buffer
+     * are read in place; values are only decoded into Strings as they are
+     * added to the result.
+     *
+     * @param buffer Input data, assumed to be in the Valve Data Format.
+     * @param convertArrays Whether or not to convert VDF-formatted arrays into
+     * JSONArrays.
+     * @return A JSON representation of the assumed-VDF data.
+     * @throws JSONException Parse exception?
+     */
+    public static JSONObject toJSONObject(ByteBuffer buffer,
+            boolean convertArrays) throws JSONException {
+        return toJSONObject(buffer,
+                new VDFOptions().setConvertArrays(convertArrays));
+    }
 
-        if (convertArrays) {
-            return convertVDFArrays(jo);
+    /**
+     * Attempts to convert what is assumed to be a ByteBuffer containing UTF-8
+     * encoded VDF text into the JSON format. The remaining bytes of the buffer
+     * are read in place; values are only decoded into Strings as they are
+     * added to the result.
+     *
+     * @param buffer Input data, assumed to be in the Valve Data Format.
+     * @param options The conversion options.
+     * @return A JSON representation of the assumed-VDF data.
+     * @throws JSONException Parse exception?
+     */
+    public static JSONObject toJSONObject(ByteBuffer buffer,
+            VDFOptions options) throws JSONException {
+        if (options.getPool() != null && options.getIncludes() == null) {
+            JSONObject result = VDFParallel.build(buffer, options);
+            if (result != null) {
+                return result;
+            }
         }
+        return toJSONObject(new VDFByteLexer(buffer), options);
+    }
 
-        return jo;
+    /**
+     * Attempts to convert what is assumed to be a file channel containing
+     * UTF-8 encoded VDF text into the JSON format. The file is memory-mapped
+     * rather than read into a String.
+     *
+     * @param channel Input file, assumed to be in the Valve Data Format.
+     * @param convertArrays Whether or not to convert VDF-formatted arrays into
+     * JSONArrays.
+     * @return A JSON representation of the assumed-VDF data.
+     * @throws IOException If the file could not be mapped.
+     * @throws JSONException Parse exception?
+     */
+    public static JSONObject toJSONObject(FileChannel channel,
+            boolean convertArrays) throws IOException, JSONException {
+        return toJSONObject(channel,
+                new VDFOptions().setConvertArrays(convertArrays));
     }
 
     /**
-     * Attempts to convert what is assumed to be a String containing VDF text
-     * into the JSON format.
+     * Attempts to convert what is assumed to be a file channel containing
+     * UTF-8 encoded VDF text into the JSON format. The file is memory-mapped
+     * rather than read into a String.
      *
-     * @param string Input data, assumed to be in the Valve Data Format.
+     * @param channel Input file, assumed to be in the Valve Data Format.
+     * @param options The conversion options.
+     * @return A JSON representation of the assumed-VDF data.
+     * @throws IOException If the file could not be mapped.
+     * @throws JSONException Parse exception?
+     */
+    public static JSONObject toJSONObject(FileChannel channel,
+            VDFOptions options) throws IOException, JSONException {
+        return toJSONObject(map(channel), options);
+    }
+
+    /**
+     * Attempts to convert what is assumed to be a file containing UTF-8
+     * encoded VDF text into the JSON format. The file is memory-mapped rather
+     * than read into a String.
+     *
+     * @param path Input file, assumed to be in the Valve Data Format.
      * @param convertArrays Whether or not to convert VDF-formatted arrays into
      * JSONArrays.
      * @return A JSON representation of the assumed-VDF data.
+     * @throws IOException If the file could not be opened or mapped.
      * @throws JSONException Parse exception?
      */
-    public static JSONObject toJSONObject(String string, boolean convertArrays)
+    public static JSONObject toJSONObject(Path path, boolean convertArrays)
+            throws IOException, JSONException {
+        return toJSONObject(path,
+                new VDFOptions().setConvertArrays(convertArrays));
+    }
+
+    /**
+     * Attempts to convert what is assumed to be a file containing UTF-8
+     * encoded VDF text into the JSON format. The file is memory-mapped rather
+     * than read into a String. If the options have a cache and no include
+     * cache, the result is loaded from it when the file hasn't changed since
+     * it was cached.
+     *
+     * @param path Input file, assumed to be in the Valve Data Format.
+     * @param options The conversion options.
+     * @return A JSON representation of the assumed-VDF data.
+     * @throws IOException If the file could not be opened or mapped.
+     * @throws JSONException Parse exception?
+     */
+    public static JSONObject toJSONObject(Path path, VDFOptions options)
+            throws IOException, JSONException {
+        VDFCache cache = options.getCache();
+        if (cache != null && options.getIncludes() == null) {
+            return cache.toJSONObject(path, options);
+        }
+        if (options.getIncludes() != null) {
+            // Included files are found relative to this one.
+            return VDFTreeBuilder.build(new VDFReader(path), options);
+        }
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.READ)) {
+            return toJSONObject(channel, options);
+        }
+    }
+
+    /**
+     * Parses what is assumed to be a String containing VDF text, passing its
+     * contents to a handler instead of building a JSONObject.
+     *
+     * @param string Input data, assumed to be in the Valve Data Format.
+     * @param handler The handler to receive the contents.
+     * @throws JSONException Parse exception, or one thrown by the handler.
+     */
+    public static void parse(String string, VDFHandler handler)
             throws JSONException {
-        return toJSONObject(new JSONTokener(string), convertArrays);
+        char[] data = string.toCharArray();
+        parse(new VDFCharLexer(data, 0, data.length), handler);
     }
 
     /**
-     * Utility method to parse a VDF value.
+     * Parses what is assumed to be a JSONTokener containing VDF text, passing
+     * its contents to a handler instead of building a JSONObject.
      *
-     * @param x The JSONTokener to use.
-     * @param delimiter The character that signals the end of the value.
-     * @return String extracted from the JSONTokener's current position up to the delimiter, with certain characters escaped.
-     * @throws JSONException
+     * @param x A JSONTokener instantiated with VDF data.
+     * @param handler The handler to receive the contents.
+     * @throws JSONException Parse exception, or one thrown by the handler.
      */
-    private static String getVDFValue(JSONTokener x, final char delimiter)
+    public static void parse(JSONTokener x, VDFHandler handler)
             throws JSONException {
-        StringBuilder sb = new StringBuilder();
-
-        while (x.more()) {
-            char c = x.next();
-            switch (c) {
-                case BACK_SLASH:
-                    // Unescape character.
-                    // -- Allowed Escape sequences are \n, \t, \\, and \".
-                    char u = x.next();
-                    switch (u) {
-                        case 'n':
-                            sb.append('\n');
-                            break;
-                        case 't':
-                            sb.append('\t');
-                            break;
-                        case '\\':
-                        case '\"':
-                            sb.append(u);
-                            break;
-                        default:
-                            String fmtError = 
-                                    "Unexpected escape sequence \"\\%s\"";
-                            throw x.syntaxError(String.format(fmtError, u));
-                    }
-                    break;
-                default:
-                    // Return the string if the tokener hit the delimiter.
-                    // (If it was escaped, it was handled in the previous case.)
-                    if (c == delimiter) {
-                        return sb.toString();
-                    } // Otherwise, append it to the string.
-                    else {
-                        sb.append(c);
+        parse(new VDFCharLexer(x), handler);
+    }
+
+    /**
+     * Parses what is assumed to be a ByteBuffer containing UTF-8 encoded VDF
+     * text, passing its contents to a handler instead of building a
+     * JSONObject.
+     *
+     * @param buffer Input data, assumed to be in the Valve Data Format.
+     * @param handler The handler to receive the contents.
+     * @throws JSONException Parse exception, or one thrown by the handler.
+     */
+    public static void parse(ByteBuffer buffer, VDFHandler handler)
+            throws JSONException {
+        parse(new VDFByteLexer(buffer), handler);
+    }
+
+    /**
+     * Parses what is assumed to be a file containing UTF-8 encoded VDF text,
+     * passing its contents to a handler instead of building a JSONObject. The
+     * file is memory-mapped rather than read into a String.
+     *
+     * @param path Input file, assumed to be in the Valve Data Format.
+     * @param handler The handler to receive the contents.
+     * @throws IOException If the file could not be opened or mapped.
+     * @throws JSONException Parse exception, or one thrown by the handler.
+     */
+    public static void parse(Path path, VDFHandler handler)
+            throws IOException, JSONException {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.READ)) {
+            parse(map(channel), handler);
+        }
+    }
+
+    /**
+     * Converts many files containing UTF-8 encoded VDF text, with at most 64
+     * in flight at once. See
+     * {@link #convertAll(Iterable, Executor, VDFOptions, int, VDFBatchHandler)}.
+     *
+     * @param paths The files to convert.
+     * @param executor The Executor to read and convert the files on.
+     * @param handler The handler to receive results and errors.
+     * @throws InterruptedException If interrupted while waiting for files to
+     * be converted.
+     */
+    public static void convertAll(Iterable<Path> paths, Executor executor,
+            VDFBatchHandler handler) throws InterruptedException {
+        convertAll(paths, executor, new VDFOptions(), 64, handler);
+    }
+
+    /**
+     * Converts many files containing UTF-8 encoded VDF text, reading and
+     * parsing each one as a task on an Executor. Blocks until every file has
+     * been passed to the handler.
+     *
+     * At most <code>maxInFlight</code> files are submitted but not yet
+     * finished at any time, so large batches don't pile up in the Executor's
+     * queue. Errors are reported per file without stopping the batch. Since
+     * tasks mostly wait on I/O and only block on the in-flight limit, an
+     * Executor that runs each task on a virtual thread works well where
+     * available.
+     *
+     * @param paths The files to convert.
+     * @param executor The Executor to read and convert the files on.
+     * @param options The conversion options.
+     * @param maxInFlight The maximum number of files being converted at once.
+     * @param handler The handler to receive results and errors.
+     * @throws InterruptedException If interrupted while waiting for files to
+     * be converted. Files already submitted are still converted.
+     */
+    public static void convertAll(Iterable<Path> paths, Executor executor,
+            final VDFOptions options, int maxInFlight,
+            final VDFBatchHandler handler) throws InterruptedException {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException(
+                    "Non-positive in-flight count: " + maxInFlight);
+        }
+        final Semaphore inFlight = new Semaphore(maxInFlight);
+
+        for (final Path path : paths) {
+            inFlight.acquire();
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            convert(path, options, handler);
+                        } finally {
+                            inFlight.release();
+                        }
                     }
+                });
+            } catch (RejectedExecutionException e) {
+                inFlight.release();
+                handler.failed(path, e);
             }
         }
 
-        return sb.toString();
+        // Every permit is back once the last file has been handled.
+        inFlight.acquire(maxInFlight);
+        inFlight.release(maxInFlight);
     }
 
     /**
-     * Recursively searches for JSONObjects, checking if they should be
-     * formatted as arrays, then converted.
-     *
-     * @param object An input JSONObject converted from VDF.
-     * @return JSONObject containing the input JSONObject with objects changed
-     * to arrays where applicable.
-     * @throws JSONException
+     * Converts a single file of a batch, passing the outcome to the handler.
      */
-    private static JSONObject convertVDFArrays(JSONObject object) throws JSONException {
-        JSONObject resp = new JSONObject();
+    private static void convert(Path path, VDFOptions options,
+            VDFBatchHandler handler) {
+        JSONObject result;
+        try {
+            // Small files are cheaper to read than to map.
+            result = toJSONObject(ByteBuffer.wrap(Files.readAllBytes(path)),
+                    options);
+        } catch (IOException | JSONException | RuntimeException e) {
+            handler.failed(path, e);
+            return;
+        }
 
-        if (object.keySet().isEmpty()) {
-            return resp;
+        try {
+            handler.converted(path, result);
+        } catch (Exception e) {
+            handler.failed(path, e);
         }
+    }
 
-        for (String name : (Set<String>) object.keySet()) {
-            JSONObject thing = object.optJSONObject(name);
-
-            if (thing != null) {
-                // Note:  Empty JSONObjects are also treated as arrays.
-                if (containsVDFArray(thing)) {
-                    List<String> sortingKeys = new ArrayList(thing.keySet());
-
-                    Collections.sort(sortingKeys, new Comparator<String>() {
-                        // Integers-as-strings comparator.
-                        @Override
-                        public int compare(String t, String t1) {
-                            int i = Integer.parseInt(t), i1 = Integer.parseInt(t1);
-                            return i - i1;
-                        }
-                    });
+    /**
+     * Passes the tokens of a VDFLexer to a handler. Only the nesting depth is
+     * tracked, so memory use does not grow with the size of the document.
+     *
+     * @param x A VDFLexer instantiated with VDF data.
+     * @param handler The handler to receive the contents.
+     * @throws JSONException Parse exception, or one thrown by the handler.
+     */
+    private static void parse(VDFLexer x, VDFHandler handler)
+            throws JSONException {
+        new VDFIncrementalParser(new VDFReader(x), handler).run();
+    }
 
-                    JSONArray sortedKeys = new JSONArray(sortingKeys);
+    /**
+     * Converts VDF text in a String directly to JSON text, without building
+     * a JSONObject. See {@link #toJSON(VDFReader, Writer, VDFOptions)}.
+     *
+     * @param string Input data, assumed to be in the Valve Data Format.
+     * @param writer The Writer to write JSON text to.
+     * @param options The conversion options.
+     * @throws JSONException Parse exception, or if the Writer could not be
+     * written to.
+     */
+    public static void toJSON(String string, Writer writer,
+            VDFOptions options) throws JSONException {
+        toJSON(new VDFReader(string), writer, options);
+    }
 
-                    if (sortedKeys.length() > 0) {
-                        JSONArray sortedObjects = thing.toJSONArray(sortedKeys);
+    /**
+     * Converts a file containing UTF-8 encoded VDF text directly to JSON
+     * text, without building a JSONObject. The file is memory-mapped. See
+     * {@link #toJSON(VDFReader, Writer, VDFOptions)}.
+     *
+     * @param path Input file, assumed to be in the Valve Data Format.
+     * @param writer The Writer to write JSON text to.
+     * @param options The conversion options.
+     * @throws IOException If the file could not be opened or mapped.
+     * @throws JSONException Parse exception, or if the Writer could not be
+     * written to.
+     */
+    public static void toJSON(Path path, Writer writer, VDFOptions options)
+            throws IOException, JSONException {
+        toJSON(new VDFReader(path), writer, options);
+    }
 
-                        for (int i = 0; i < sortedObjects.length(); i++) {
-                            JSONObject arrayObject = sortedObjects.getJSONObject(i);
+    /**
+     * Converts VDF text directly to JSON text as it is read, without
+     * building a JSONObject for the whole document.
+     *
+     * With array conversion, nested KeyValue sets are only held in memory
+     * while they could still turn out to be arrays. Duplicate keys are
+     * handled as in {@link #toJSONObject(String, VDFOptions)}, which takes a
+     * first pass over the input to find them; input from a Reader or
+     * JSONTokener is read into memory as text for that. A reader that has
+     * already been advanced, or that is fed its input, can't be read twice,
+     * so it is converted through a JSONObject. Nesting is limited to what
+     * JSONWriter supports.
+     *
+     * @param reader A VDFReader instantiated with VDF data.
+     * @param writer The Writer to write JSON text to. It is neither flushed
+     * nor closed.
+     * @param options The conversion options.
+     * @throws JSONException Parse exception, or if the Writer could not be
+     * written to.
+     */
+    public static void toJSON(VDFReader reader, Writer writer,
+            VDFOptions options) throws JSONException {
+        VDFTranscoder.toJSON(reader, writer, options);
+    }
 
-                            /**
-                             * See if any values are also JSONObjects that
-                             * should be arrays.
-                             */
-                            sortedObjects.put(i, convertVDFArrays(arrayObject));
-                        }
+    /**
+     * Reads only the parts of VDF text at a set of paths. See
+     * {@link #select(VDFReader, String...)}.
+     *
+     * @param string Input data, assumed to be in the Valve Data Format.
+     * @param paths The paths to read, such as <code>apilist/interfaces</code>.
+     * @return A JSONObject with the selected parts of the data.
+     * @throws JSONException Parse exception?
+     */
+    public static JSONObject select(String string, String... paths)
+            throws JSONException {
+        return select(new VDFReader(string), paths);
+    }
 
-                        /**
-                         * If this JSONObject represents a non-empty array in
-                         * VDF format, convert it to a JSONArray.
-                         */
-                        resp.put(name, sortedObjects);
-                    } else {
-                        /**
-                         * If this JSONObject represents an empty array, give it
-                         * an empty JSONArray.
-                         */
-                        resp.put(name, new JSONArray());
-                    }
-                } else {
-                    /**
-                     * If this JSONObject is not a VDF array, see if its values
-                     * are before adding.
-                     */
-                    resp.put(name, convertVDFArrays(thing));
+    /**
+     * Reads only the parts of UTF-8 encoded VDF text at a set of paths. See
+     * {@link #select(VDFReader, String...)}.
+     *
+     * @param buffer Input data, assumed to be in the Valve Data Format.
+     * @param paths The paths to read, such as <code>apilist/interfaces</code>.
+     * @return A JSONObject with the selected parts of the data.
+     * @throws JSONException Parse exception?
+     */
+    public static JSONObject select(ByteBuffer buffer, String... paths)
+            throws JSONException {
+        return select(new VDFReader(buffer), paths);
+    }
+
+    /**
+     * Reads only the parts of a file containing UTF-8 encoded VDF text at a
+     * set of paths. The file is memory-mapped. See
+     * {@link #select(VDFReader, String...)}.
+     *
+     * @param path Input file, assumed to be in the Valve Data Format.
+     * @param paths The paths to read, such as <code>apilist/interfaces</code>.
+     * @return A JSONObject with the selected parts of the data.
+     * @throws IOException If the file could not be opened or mapped.
+     * @throws JSONException Parse exception?
+     */
+    public static JSONObject select(Path path, String... paths)
+            throws IOException, JSONException {
+        return select(new VDFReader(path), paths);
+    }
+
+    /**
+     * Reads only the parts of VDF text at a set of paths.
+     *
+     * A path is a list of keys separated by slashes, where a <code>*</code>
+     * matches any key; <code>apilist/interfaces/*&#47;name</code> selects the
+     * name of every interface. Whatever a path ends at, a String or a whole
+     * KeyValue set, is copied as it would be by
+     * {@link #toJSONObject(String, boolean)} without array conversion, along
+     * with the KeyValue sets leading to it. Everything else is passed over by
+     * counting braces, without decoding or building anything.
+     *
+     * @param reader A VDFReader instantiated with VDF data.
+     * @param paths The paths to read, at most 64.
+     * @return A JSONObject with the selected parts of the data, which is
+     * empty if nothing matched.
+     * @throws IllegalArgumentException If there are too many paths, or a path
+     * has an empty key.
+     * @throws JSONException Parse exception?
+     */
+    public static JSONObject select(VDFReader reader, String... paths)
+            throws JSONException {
+        return VDFSelector.select(reader, paths);
+    }
+
+    /**
+     * Writes a JSONObject as VDF text, streaming it to a Writer. JSONArrays are
+     * written as KeyValue sets keyed "0" to "n", numbers in their JSON form,
+     * and other values as their String representation.
+     *
+     * @param object The JSONObject to write.
+     * @param writer The Writer to write VDF text to. It is neither flushed
+     * nor closed.
+     * @throws JSONException If a value is null, or the Writer could not be
+     * written to.
+     */
+    public static void write(JSONObject object, Writer writer)
+            throws JSONException {
+        final VDFWriter out = new VDFWriter(writer);
+
+        try {
+            new VDFTreeWalker() {
+                @Override
+                void startObject(String key) throws JSONException {
+                    out.startObject(key);
                 }
-            } else {
-                /**
-                 * It's a plain data value. Add it in.
-                 */
-                resp.put(name, object.get(name));
+
+                @Override
+                void value(String key, Object value) throws JSONException {
+                    out.keyValue(key, valueToString(key, value));
+                }
+
+                @Override
+                void endObject() throws JSONException {
+                    out.endObject();
+                }
+            }.walk(object);
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+    }
+
+    /**
+     * Converts JSON text directly to VDF text as it is read, without building
+     * a JSONObject. JSON arrays are written as KeyValue sets keyed "0" to "n"
+     * while their elements are read, so memory use does not grow with the
+     * size of the input.
+     *
+     * @param x A JSONTokener instantiated with the text of a JSON object.
+     * @param writer The Writer to write VDF text to. It is neither flushed
+     * nor closed.
+     * @throws JSONException Parse exception, a null value, or if the Writer
+     * could not be written to.
+     */
+    public static void write(JSONTokener x, Writer writer)
+            throws JSONException {
+        VDFTranscoder.toVDF(x, new VDFWriter(writer));
+    }
+
+    /**
+     * Converts a JSONObject into VDF text.
+     *
+     * @param object The JSONObject to convert.
+     * @return The VDF text.
+     * @throws JSONException If a value is null.
+     */
+    public static String toVDF(JSONObject object) throws JSONException {
+        StringWriter sw = new StringWriter();
+        write(object, sw);
+        return sw.toString();
+    }
+
+    /**
+     * Converts a JSON value into the String written for it in VDF text.
+     *
+     * @param key The key of the value, for error messages.
+     * @param value A value that isn't a JSONObject or JSONArray.
+     * @return The String representation of the value. Non-finite numbers,
+     * which JSON text has no form for, are written as "NaN", "Infinity" and
+     * "-Infinity".
+     * @throws JSONException If the value is null.
+     */
+    static String valueToString(String key, Object value)
+            throws JSONException {
+        if (value instanceof String) {
+            return (String) value;
+        }
+        if (value instanceof Double || value instanceof Float) {
+            double d = ((Number) value).doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                return Double.toString(d);
             }
         }
+        if (value instanceof Number) {
+            return JSONObject.numberToString((Number) value);
+        }
+        if (value == null || JSONObject.NULL.equals(value)) {
+            throw new JSONException("Null value for key \"" + key + "\"");
+        }
+        return value.toString();
+    }
 
-        /**
-         * Return the converted JSONObject.
-         */
-        return resp;
+    /**
+     * Maps the contents of a file channel into memory.
+     *
+     * @param channel The file channel to map.
+     * @return A read-only ByteBuffer with the contents of the file.
+     * @throws IOException If the file is too large to be mapped at once.
+     */
+    static ByteBuffer map(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("File too large to map: " + size + " bytes");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
     }
 
     /**
-     * Checks that a JSONObject converted from a VDF file is an array. If so,
-     * the only keys in the JSONObject are a continues set of integers
-     * represented by Strings starting from "0". Note that empty JSONObjects are
-     * also treated as arrays.
+     * Converts the tokens of a VDFLexer into the JSON format.
+     *
+     * @param x A VDFLexer instantiated with VDF data.
+     * @param options The conversion options.
+     * @return A JSON representation of the assumed-VDF data.
+     * @throws JSONException Parse exception?
+     */
+    private static JSONObject toJSONObject(VDFLexer x, VDFOptions options)
+            throws JSONException {
+        return VDFTreeBuilder.build(new VDFReader(x), options);
+    }
+
+    /**
+     * Checks that a JSONObject converted from a VDF file is an array, and if
+     * so, collects its values into a JSONArray. The only keys in such a
+     * JSONObject are a continuous set of integers represented by Strings
+     * starting from "0", and all of its values are JSONObjects. Note that
+     * empty JSONObjects are also treated as arrays.
+     *
+     * Each value is placed straight into the slot for its key, so no sorting
+     * is needed.
      *
      * @param object The JSONObject to check for a VDF-formatted array.
-     * @return Whether or not the JSONObject is a VDF-formatted array.
+     * @return JSONArray containing the values of the JSONObject ordered by
+     * their keys, or null if the JSONObject is not a VDF-formatted array.
      */
-    private static boolean containsVDFArray(JSONObject object) {
+    static JSONArray toVDFArray(JSONObject object) {
         int indices = object.length();
-        int[] index = new int[indices];
-
-        for (int i = 0; i < indices; i++) {
-            index[i] = -1;
-        }
+        Object[] slots = new Object[indices];
 
         /**
          * Fail if we encounter a non-integer, if a value isn't a JSONObject,
@@ -312,30 +719,71 @@ public class VDF {
          * (meaning we're missing a value).
          */
         for (String name : (Set<String>) object.keySet()) {
-            if (object.optJSONObject(name) == null) {
-                return false;
+            Object value = object.opt(name);
+            if (!(value instanceof JSONObject)) {
+                return null;
             }
 
-            try {
-                int i = Integer.parseInt(name);
-                
-                if (i >= indices) {
-                    return false;
-                }
-                
-                index[i] = i;
-            } catch (NumberFormatException e) {
-                return false;
+            int i = parseIndex(name, indices);
+            if (i < 0) {
+                return null;
             }
+
+            /**
+             * Two keys for one slot (e.g., "1" and "01") mean there are as
+             * many keys as slots but one slot is left empty.
+             */
+            if (slots[i] != null) {
+                return null;
+            }
+            slots[i] = value;
         }
 
-        // Fail if we are missing any values (e.g., 0, 1, 2, 3, 4, 5, 7, 8, 9).
-        for (int i = 0; i < indices; i++) {
-            if (index[i] != i) {
-                return false;
+        return new JSONArray(Arrays.asList(slots));
+    }
+
+    /**
+     * Reads a key as an array index, accepting what Integer.parseInt does,
+     * but without throwing on keys that aren't numbers.
+     *
+     * @param key The key to read.
+     * @param bound The number of slots in the array.
+     * @return The index, or -1 if the key isn't an integer from 0 up to (but
+     * not including) the bound.
+     */
+    static int parseIndex(String key, int bound) {
+        final int length = key.length();
+        int i = 0;
+        boolean negative = false;
+
+        if (length > 0) {
+            char sign = key.charAt(0);
+            if (sign == '-' || sign == '+') {
+                negative = sign == '-';
+                i++;
+            }
+        }
+
+        if (i == length) {
+            return -1;
+        }
+
+        long index = 0;
+        for (; i < length; i++) {
+            char c = key.charAt(i);
+            int digit = c >= '0' && c <= '9' ? c - '0' : Character.digit(c, 10);
+
+            if (digit < 0) {
+                return -1;
+            }
+
+            index = index * 10 + digit;
+            if (index >= bound) {
+                return -1;
             }
         }
 
-        return true;
+        // Only zero survives a minus sign.
+        return negative && index != 0 ? -1 : (int) index;
     }
 }
@@ -0,0 +1,59 @@
+package com.nosoop.json;
+
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 nosoop
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+import java.nio.file.Path;
+import org.json.JSONObject;
+
+/**
+ * Receives the results of converting many files with
+ * {@link VDF#convertAll(Iterable, java.util.concurrent.Executor, VDFOptions, int, VDFBatchHandler)}.
+ *
+ * Methods are called on the threads doing the conversions, possibly at the
+ * same time and in any order, so implementations must be thread-safe.
+ *
+ * @author nosoop < nosoop at users.noreply.github.com >
+ */
+public interface VDFBatchHandler {
+
+    /**
+     * Called when a file has been converted.
+     *
+     * @param path The file that was converted.
+     * @param result A JSON representation of the file.
+     * @throws Exception To report the file as failed instead.
+     */
+    void converted(Path path, JSONObject result) throws Exception;
+
+    /**
+     * Called when a file could not be read or parsed, or when
+     * {@link #converted(Path, JSONObject)} failed for it. The rest of the
+     * batch carries on.
+     *
+     * @param path The file that failed.
+     * @param error The reason it failed.
+     */
+    void failed(Path path, Exception error);
+}
@@ -0,0 +1,604 @@
+package com.nosoop.json;
+
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 nosoop
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Provides static methods to convert binary KeyValues, as used by Steam's
+ * <code>appinfo.vdf</code>, <code>packageinfo.vdf</code> and
+ * <code>shortcuts.vdf</code>, to an equivalent JSON representation and
+ * back.
+ *
+ * Each entry is a type byte, a null-terminated key, then a payload depending
+ * on the type. Numeric payloads are kept as numbers: 32-bit integers (and
+ * pointers and colors) become Integers, signed 64-bit integers become Longs,
+ * unsigned ones become BigIntegers, whatever their value, and floats become
+ * Floats. Each is written back with the type it was read as. Floats that
+ * are NaN or infinite, which a JSONObject can't
+ * hold, become the Strings "NaN", "Infinity" and "-Infinity". Multi-byte
+ * values are little-endian.
+ *
+ * Only the KeyValues themselves are read; container formats such as the
+ * header and per-app records of <code>appinfo.vdf</code> should be skipped
+ * by the caller, passing a buffer positioned at the start of the KeyValues.
+ *
+ * @author nosoop < nosoop at users.noreply.github.com >
+ */
+public class VDFBinary {
+
+    /**
+     * Type byte for a nested KeyValue set.
+     */
+    public static final byte TYPE_NONE = 0x00;
+    /**
+     * Type byte for a null-terminated UTF-8 String.
+     */
+    public static final byte TYPE_STRING = 0x01;
+    /**
+     * Type byte for a 32-bit signed integer.
+     */
+    public static final byte TYPE_INT = 0x02;
+    /**
+     * Type byte for a 32-bit float.
+     */
+    public static final byte TYPE_FLOAT = 0x03;
+    /**
+     * Type byte for a 32-bit pointer, read as an integer.
+     */
+    public static final byte TYPE_PTR = 0x04;
+    /**
+     * Type byte for a null-terminated UTF-16 String.
+     */
+    public static final byte TYPE_WSTRING = 0x05;
+    /**
+     * Type byte for a 32-bit color, read as an integer.
+     */
+    public static final byte TYPE_COLOR = 0x06;
+    /**
+     * Type byte for a 64-bit unsigned integer.
+     */
+    public static final byte TYPE_UINT64 = 0x07;
+    /**
+     * Type byte marking the end of a KeyValue set.
+     */
+    public static final byte TYPE_END = 0x08;
+    /**
+     * Type byte for a 64-bit signed integer.
+     */
+    public static final byte TYPE_INT64 = 0x0A;
+    /**
+     * Alternate type byte marking the end of a KeyValue set.
+     */
+    public static final byte TYPE_ALTERNATE_END = 0x0B;
+    /**
+     * Number of values of an unsigned 64-bit integer, 2<sup>64</sup>.
+     */
+    private static final BigInteger UINT64_RANGE = BigInteger.ONE.shiftLeft(64);
+
+    /**
+     * Converts binary KeyValues in a ByteBuffer into the JSON format. The
+     * remaining bytes of the buffer are read; its position is left untouched.
+     *
+     * @param buffer Input data, assumed to be binary KeyValues.
+     * @param options The conversion options.
+     * @return A JSON representation of the KeyValues.
+     * @throws JSONException If the data is not valid binary KeyValues.
+     */
+    public static JSONObject toJSONObject(ByteBuffer buffer, VDFOptions options)
+            throws JSONException {
+        return toJSONObject(new BufferSource(buffer), options);
+    }
+
+    /**
+     * Converts binary KeyValues read from an InputStream into the JSON
+     * format. The stream is read in blocks, so it may be read past the end of
+     * the KeyValues.
+     *
+     * @param stream Input data, assumed to be binary KeyValues.
+     * @param options The conversion options.
+     * @return A JSON representation of the KeyValues.
+     * @throws JSONException If the data is not valid binary KeyValues, or the
+     * stream could not be read.
+     */
+    public static JSONObject toJSONObject(InputStream stream,
+            VDFOptions options) throws JSONException {
+        return toJSONObject(new StreamSource(stream), options);
+    }
+
+    /**
+     * Converts binary KeyValues from a source into the JSON format.
+     *
+     * @param in The source of the binary KeyValues.
+     * @param options The conversion options.
+     * @return A JSON representation of the KeyValues.
+     * @throws JSONException If the data is not valid binary KeyValues.
+     */
+    private static JSONObject toJSONObject(Source in, VDFOptions options)
+            throws JSONException {
+        VDFTreeBuilder builder = new VDFTreeBuilder(options);
+        int maxDepth = options.getMaxDepth();
+        int depth = 0;
+
+        for (;;) {
+            int type = in.read();
+
+            if (type < 0) {
+                // The end marker of the root may be left out, but not those
+                // of nested sets.
+                if (depth > 0) {
+                    throw in.syntaxError("Unexpected end of input");
+                }
+                return builder.finish();
+            }
+
+            if (type == TYPE_END || type == TYPE_ALTERNATE_END) {
+                if (depth == 0) {
+                    return builder.finish();
+                }
+                builder.endObject();
+                depth--;
+                continue;
+            }
+
+            String key = in.readString();
+
+            switch (type) {
+                case TYPE_NONE:
+                    if (depth >= maxDepth) {
+                        throw in.syntaxError("Nesting too deep");
+                    }
+                    builder.startObject(key);
+                    depth++;
+                    break;
+                case TYPE_STRING:
+                    builder.value(key, in.readString());
+                    break;
+                case TYPE_INT:
+                case TYPE_PTR:
+                case TYPE_COLOR:
+                    builder.value(key, in.readInt());
+                    break;
+                case TYPE_FLOAT:
+                    float f = Float.intBitsToFloat(in.readInt());
+                    builder.value(key, Float.isNaN(f) || Float.isInfinite(f)
+                            ? (Object) Float.toString(f) : (Object) f);
+                    break;
+                case TYPE_WSTRING:
+                    builder.value(key, in.readWideString());
+                    break;
+                case TYPE_UINT64:
+                    long unsigned = in.readLong();
+                    BigInteger value = BigInteger.valueOf(unsigned);
+                    builder.value(key, unsigned >= 0 ? value
+                            : value.add(UINT64_RANGE));
+                    break;
+                case TYPE_INT64:
+                    builder.value(key, in.readLong());
+                    break;
+                default:
+                    String fmtError = "Unknown type 0x%02x";
+                    throw in.syntaxError(String.format(fmtError, type));
+            }
+        }
+    }
+
+    /**
+     * Writes a JSONObject as binary KeyValues, followed by the end marker of
+     * the root set. JSONArrays are written as sets keyed by their indices.
+     *
+     * Integers, Shorts, Bytes and Booleans are written as 32-bit integers,
+     * Longs as signed 64-bit integers, BigIntegers that fit as unsigned
+     * 64-bit integers, and Floats as 32-bit floats. Doubles are written as
+     * floats if that loses no precision, NaN included, and as Strings
+     * otherwise; anything else is written as a String.
+     *
+     * The stream is written to in blocks and is neither flushed nor closed.
+     *
+     * @param object The JSONObject to write.
+     * @param stream The stream to write the KeyValues to.
+     * @throws JSONException If a value cannot be represented in binary
+     * KeyValues.
+     * @throws IOException If the stream could not be written to.
+     */
+    public static void write(JSONObject object, OutputStream stream)
+            throws JSONException, IOException {
+        final Sink out = new Sink(stream);
+
+        new VDFTreeWalker() {
+            @Override
+            void startObject(String key) throws JSONException, IOException {
+                out.writeByte(TYPE_NONE);
+                out.writeString(key);
+            }
+
+            @Override
+            void value(String key, Object value)
+                    throws JSONException, IOException {
+                writeValue(out, key, value);
+            }
+
+            @Override
+            void endObject() throws IOException {
+                out.writeByte(TYPE_END);
+            }
+        }.walk(object);
+
+        out.writeByte(TYPE_END);
+        out.flush();
+    }
+
+    /**
+     * Writes a single non-container value, choosing the type byte from the
+     * value's type.
+     */
+    private static void writeValue(Sink out, String key, Object value)
+            throws JSONException, IOException {
+        if (value instanceof Integer || value instanceof Short
+                || value instanceof Byte) {
+            out.writeByte(TYPE_INT);
+            out.writeString(key);
+            out.writeInt(((Number) value).intValue());
+        } else if (value instanceof Boolean) {
+            out.writeByte(TYPE_INT);
+            out.writeString(key);
+            out.writeInt((Boolean) value ? 1 : 0);
+        } else if (value instanceof Long) {
+            out.writeByte(TYPE_INT64);
+            out.writeString(key);
+            out.writeLong((Long) value);
+        } else if (value instanceof BigInteger
+                && ((BigInteger) value).signum() >= 0
+                && ((BigInteger) value).bitLength() <= Long.SIZE) {
+            out.writeByte(TYPE_UINT64);
+            out.writeString(key);
+            out.writeLong(((BigInteger) value).longValue());
+        } else if (value instanceof Float || value instanceof Double
+                && (((Double) value).floatValue() == (Double) value
+                || ((Double) value).isNaN())) {
+            out.writeByte(TYPE_FLOAT);
+            out.writeString(key);
+            out.writeInt(Float.floatToIntBits(((Number) value).floatValue()));
+        } else if (value == null || JSONObject.NULL.equals(value)) {
+            throw new JSONException("Null value for key \"" + key + "\"");
+        } else {
+            out.writeByte(TYPE_STRING);
+            out.writeString(key);
+            out.writeString(value instanceof Number
+                    ? JSONObject.numberToString((Number) value)
+                    : value.toString());
+        }
+    }
+
+    /**
+     * Reads the primitives of binary KeyValues.
+     */
+    private abstract static class Source {
+
+        /**
+         * Scratch space for decoding Strings.
+         */
+        byte[] scratch = new byte[64];
+
+        /**
+         * @return The next byte as an unsigned value, or -1 at the end of the
+         * input.
+         */
+        abstract int read() throws JSONException;
+
+        /**
+         * @return The offset of the next byte in the input.
+         */
+        abstract long offset();
+
+        /**
+         * @return The next byte, failing at the end of the input.
+         */
+        byte readByte() throws JSONException {
+            int b = this.read();
+            if (b < 0) {
+                throw this.syntaxError("Unexpected end of input");
+            }
+            return (byte) b;
+        }
+
+        /**
+         * @return The next little-endian 32-bit integer.
+         */
+        int readInt() throws JSONException {
+            int value = 0;
+            for (int i = 0; i < 32; i += 8) {
+                value |= (this.readByte() & 0xFF) << i;
+            }
+            return value;
+        }
+
+        /**
+         * @return The next little-endian 64-bit integer.
+         */
+        long readLong() throws JSONException {
+            long value = 0;
+            for (int i = 0; i < 64; i += 8) {
+                value |= (this.readByte() & 0xFFL) << i;
+            }
+            return value;
+        }
+
+        /**
+         * @return The next null-terminated UTF-8 String.
+         */
+        String readString() throws JSONException {
+            int length = 0;
+            byte b;
+            while ((b = this.readByte()) != 0) {
+                this.ensureScratch(length + 1);
+                this.scratch[length++] = b;
+            }
+            return new String(this.scratch, 0, length, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return The next null-terminated UTF-16 String.
+         */
+        String readWideString() throws JSONException {
+            int length = 0;
+            for (;;) {
+                byte lo = this.readByte(), hi = this.readByte();
+                if (lo == 0 && hi == 0) {
+                    break;
+                }
+                this.ensureScratch(length + 2);
+                this.scratch[length++] = lo;
+                this.scratch[length++] = hi;
+            }
+            return new String(this.scratch, 0, length,
+                    StandardCharsets.UTF_16LE);
+        }
+
+        /**
+         * Grows the scratch space to hold at least the given number of bytes.
+         */
+        void ensureScratch(int length) {
+            if (length > this.scratch.length) {
+                byte[] grown = new byte[Math.max(length, this.scratch.length * 2)];
+                System.arraycopy(this.scratch, 0, grown, 0, this.scratch.length);
+                this.scratch = grown;
+            }
+        }
+
+        /**
+         * Make a JSONException to signal a syntax error at the current offset.
+         *
+         * @param message The error message.
+         * @return A JSONException object, suitable for throwing.
+         */
+        JSONException syntaxError(String message) {
+            return new JSONException(message + " at " + this.offset());
+        }
+    }
+
+    /**
+     * Reads binary KeyValues in place from a ByteBuffer.
+     */
+    private static final class BufferSource extends Source {
+
+        private final ByteBuffer buf;
+        private final int start;
+        private int pos;
+        private final int limit;
+
+        BufferSource(ByteBuffer buffer) {
+            this.buf = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            this.start = this.pos = buffer.position();
+            this.limit = buffer.limit();
+        }
+
+        @Override
+        int read() {
+            return this.pos < this.limit ? this.buf.get(this.pos++) & 0xFF : -1;
+        }
+
+        @Override
+        long offset() {
+            return this.pos - this.start;
+        }
+
+        @Override
+        int readInt() throws JSONException {
+            if (this.limit - this.pos < 4) {
+                throw this.syntaxError("Unexpected end of input");
+            }
+            int value = this.buf.getInt(this.pos);
+            this.pos += 4;
+            return value;
+        }
+
+        @Override
+        long readLong() throws JSONException {
+            if (this.limit - this.pos < 8) {
+                throw this.syntaxError("Unexpected end of input");
+            }
+            long value = this.buf.getLong(this.pos);
+            this.pos += 8;
+            return value;
+        }
+
+        @Override
+        String readString() throws JSONException {
+            int end = this.pos;
+            while (end < this.limit && this.buf.get(end) != 0) {
+                end++;
+            }
+            if (end == this.limit) {
+                throw this.syntaxError("Unterminated string");
+            }
+
+            int length = end - this.pos;
+            this.ensureScratch(length);
+            this.buf.limit(end).position(this.pos);
+            this.buf.get(this.scratch, 0, length);
+            this.buf.limit(this.limit);
+            this.pos = end + 1;
+
+            return new String(this.scratch, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Reads binary KeyValues from an InputStream in blocks.
+     */
+    private static final class StreamSource extends Source {
+
+        private final InputStream stream;
+        private final byte[] buf = new byte[8192];
+        private int pos;
+        private int limit;
+        private long offset;
+
+        StreamSource(InputStream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        int read() throws JSONException {
+            if (this.pos == this.limit) {
+                try {
+                    this.offset += this.limit;
+                    this.pos = this.limit = 0;
+                    int n = this.stream.read(this.buf);
+                    if (n <= 0) {
+                        return -1;
+                    }
+                    this.limit = n;
+                } catch (IOException e) {
+                    throw new JSONException(e);
+                }
+            }
+            return this.buf[this.pos++] & 0xFF;
+        }
+
+        @Override
+        long offset() {
+            return this.offset + this.pos;
+        }
+    }
+
+    /**
+     * Writes the primitives of binary KeyValues to an OutputStream in blocks.
+     */
+    private static final class Sink {
+
+        private final OutputStream stream;
+        private final byte[] buf = new byte[8192];
+        private int pos;
+
+        Sink(OutputStream stream) {
+            this.stream = stream;
+        }
+
+        /**
+         * Makes room for at least the given number of bytes.
+         */
+        private void require(int length) throws IOException {
+            if (this.buf.length - this.pos < length) {
+                this.flush();
+            }
+        }
+
+        void writeByte(byte b) throws IOException {
+            this.require(1);
+            this.buf[this.pos++] = b;
+        }
+
+        void writeInt(int value) throws IOException {
+            this.require(4);
+            for (int i = 0; i < 32; i += 8) {
+                this.buf[this.pos++] = (byte) (value >>> i);
+            }
+        }
+
+        void writeLong(long value) throws IOException {
+            this.require(8);
+            for (int i = 0; i < 64; i += 8) {
+                this.buf[this.pos++] = (byte) (value >>> i);
+            }
+        }
+
+        /**
+         * Writes a null-terminated UTF-8 String. ASCII is copied directly;
+         * anything else goes through the encoder.
+         */
+        void writeString(String s) throws JSONException, IOException {
+            int length = s.length();
+            if (s.indexOf(0) >= 0) {
+                throw new JSONException("String contains a null character");
+            }
+
+            if (length < this.buf.length) {
+                this.require(length + 1);
+                int start = this.pos;
+                int i = 0;
+                char c;
+                while (i < length && (c = s.charAt(i)) < 0x80) {
+                    this.buf[start + i++] = (byte) c;
+                }
+                if (i == length) {
+                    this.pos += length;
+                    this.writeByte((byte) 0);
+                    return;
+                }
+            }
+
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > this.buf.length - this.pos) {
+                this.flush();
+                if (bytes.length > this.buf.length) {
+                    this.stream.write(bytes);
+                    this.writeByte((byte) 0);
+                    return;
+                }
+            }
+            System.arraycopy(bytes, 0, this.buf, this.pos, bytes.length);
+            this.pos += bytes.length;
+            this.writeByte((byte) 0);
+        }
+
+        /**
+         * Writes out any buffered bytes.
+         */
+        void flush() throws IOException {
+            this.stream.write(this.buf, 0, this.pos);
+            this.pos = 0;
+        }
+    }
+}
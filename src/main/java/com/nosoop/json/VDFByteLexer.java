@@ -0,0 +1,739 @@
+package com.nosoop.json;
+
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 nosoop
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.json.JSONException;
+import org.json.JSONLazyValue;
+
+/**
+ * Splits UTF-8 encoded VDF text into tokens.
+ *
+ * The lexer scans the bytes of a ByteBuffer (typically a memory-mapped file)
+ * in place. All structural characters in VDF are ASCII, so no decoding is
+ * needed to find tokens; String tokens are only decoded when requested.
+ *
+ * @author nosoop < nosoop at users.noreply.github.com >
+ */
+class VDFByteLexer extends VDFLexer {
+
+    /**
+     * The UTF-8 encoded byte order mark, ignored at the start of the input.
+     */
+    private static final byte[] BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+    /**
+     * Initial size of the buffer used when the input is fed in chunks.
+     */
+    private static final int BUFFER_SIZE = 8192;
+    /**
+     * The bytes to lex.
+     */
+    private ByteBuffer buf;
+    /**
+     * A duplicate of the buffer used for bulk copies out of it.
+     */
+    private ByteBuffer src;
+    /**
+     * Position of the cursor in the buffer.
+     */
+    private int pos;
+    /**
+     * End of the bytes to lex in the buffer.
+     */
+    private int limit;
+    /**
+     * Whether or not the buffer is a window over input that is fed in
+     * chunks, rather than holding all of the input for as long as the lexer
+     * exists.
+     */
+    private boolean windowed;
+    /**
+     * Whether or not more input may still be fed after the bytes in the
+     * buffer.
+     */
+    private boolean partial;
+    /**
+     * Whether or not the start of the input has been checked for a byte
+     * order mark.
+     */
+    private boolean bomChecked;
+    /**
+     * Number of bytes fed and discarded before the start of the buffer.
+     */
+    private long offset;
+    /**
+     * Number of lines discarded before the start of the buffer.
+     */
+    private long line;
+    /**
+     * Offset in the input of the newline ending the last line before the
+     * buffer, or one before the start of the input.
+     */
+    private long lineStart;
+    /**
+     * Start and end of the current String token, excluding quotes.
+     */
+    private int tokenStart, tokenEnd;
+    /**
+     * Whether or not the current String token contains escape sequences.
+     */
+    private boolean tokenEscaped;
+    /**
+     * Position of the opening quote of a String cut off by the end of the
+     * bytes fed so far, or -1 if there is none.
+     */
+    private int partialStart = -1;
+    /**
+     * Position in the cut off String to resume scanning from once more
+     * input is fed, which is past the end of the buffer if it ended in the
+     * middle of an escape sequence.
+     */
+    private int partialScanned;
+    /**
+     * Whether or not the part of the cut off String scanned so far contains
+     * escape sequences.
+     */
+    private boolean partialEscaped;
+    /**
+     * Start and end of the saved String token, or -1 if no token is saved.
+     */
+    private int savedStart = -1, savedEnd;
+    /**
+     * Whether or not the saved String token contains escape sequences.
+     */
+    private boolean savedEscaped;
+    /**
+     * Scratch space to copy String tokens into for decoding.
+     */
+    private byte[] scratch = new byte[64];
+
+    /**
+     * Creates a lexer over the remaining bytes of a ByteBuffer. The buffer's
+     * position and limit are left untouched.
+     *
+     * @param buffer The ByteBuffer containing UTF-8 encoded VDF text.
+     */
+    VDFByteLexer(ByteBuffer buffer) {
+        this.buf = buffer;
+        this.src = buffer.duplicate();
+        this.pos = buffer.position();
+        this.limit = buffer.limit();
+        this.lineStart = this.pos - 1;
+        this.skipBOM();
+    }
+
+    /**
+     * Creates a lexer that is fed its input in chunks with
+     * {@link #feed(ByteBuffer)}. Until {@link #endOfInput()} is called, a
+     * token cut off by the end of the bytes fed so far is reported as
+     * {@link #INCOMPLETE} instead of being lexed.
+     */
+    VDFByteLexer() {
+        this(ByteBuffer.allocate(BUFFER_SIZE));
+        this.limit = 0;
+        this.windowed = true;
+        this.partial = true;
+        this.bomChecked = false;
+    }
+
+    /**
+     * Appends the remaining bytes of a chunk to the input, discarding
+     * whatever has already been lexed. The chunk's position is advanced to
+     * its limit.
+     *
+     * @param chunk The next bytes of UTF-8 encoded VDF text.
+     */
+    void feed(ByteBuffer chunk) {
+        final byte[] store = this.buf.array();
+        final int keep = this.savedStart >= 0
+                ? Math.min(this.pos, this.savedStart) : this.pos;
+        final int remaining = this.limit - keep;
+        final int needed = remaining + chunk.remaining();
+
+        for (int i = 0; i < keep; i++) {
+            if (store[i] == VDF.NEWLINE) {
+                this.line++;
+                this.lineStart = this.offset + i;
+            }
+        }
+
+        byte[] target = store;
+        if (needed > store.length) {
+            target = new byte[Math.max(needed, store.length * 2)];
+        }
+        if (keep > 0 || target != store) {
+            System.arraycopy(store, keep, target, 0, remaining);
+        }
+        chunk.get(target, remaining, chunk.remaining());
+
+        this.offset += keep;
+        this.buf = ByteBuffer.wrap(target);
+        this.src = this.buf.duplicate();
+        this.pos -= keep;
+        this.limit = needed;
+        this.tokenStart -= keep;
+        this.tokenEnd -= keep;
+        if (this.savedStart >= 0) {
+            this.savedStart -= keep;
+            this.savedEnd -= keep;
+        }
+        if (this.partialStart >= 0) {
+            this.partialStart -= keep;
+            this.partialScanned -= keep;
+        }
+    }
+
+    /**
+     * Signals that no more input will be fed, so that tokens cut off by the
+     * end of the input are lexed the same way as they are for a complete
+     * buffer.
+     */
+    void endOfInput() {
+        this.partial = false;
+    }
+
+    /**
+     * Skips a byte order mark at the start of the input, once enough of it
+     * has been received to tell.
+     *
+     * @return Whether or not the start of the input has been checked.
+     */
+    private boolean skipBOM() {
+        int available = this.limit - this.pos;
+        for (int i = 0; i < BOM.length; i++) {
+            if (i == available) {
+                if (this.partial) {
+                    return false;
+                }
+                break;
+            }
+            if (this.buf.get(this.pos + i) != BOM[i]) {
+                break;
+            }
+            if (i == BOM.length - 1) {
+                this.pos += BOM.length;
+            }
+        }
+        this.bomChecked = true;
+        return true;
+    }
+
+    @Override
+    VDFLexer copy() {
+        if (this.windowed) {
+            return null;
+        }
+        ByteBuffer rest = this.buf.duplicate();
+        rest.limit(this.limit).position(this.pos);
+        return new VDFByteLexer(rest);
+    }
+
+    @Override
+    long position() {
+        return this.offset + this.pos;
+    }
+
+    @Override
+    int nextToken() throws JSONException {
+        if (!this.bomChecked && !this.skipBOM()) {
+            return INCOMPLETE;
+        }
+
+        final ByteBuffer b = this.buf;
+        final int n = this.limit;
+
+        for (;;) {
+            int i = this.pos;
+
+            // Null characters are disregarded along with whitespace.
+            byte c = 0;
+            while (i < n && (c = b.get(i)) <= ' ' && c >= 0) {
+                i++;
+            }
+            this.pos = i;
+
+            if (i == n) {
+                return this.partial ? INCOMPLETE : EOF;
+            }
+
+            switch (c) {
+                case VDF.QUOTE:
+                    if (!this.scanString()) {
+                        return INCOMPLETE;
+                    }
+                    return STRING;
+                case VDF.L_BRACE:
+                    this.pos++;
+                    return L_BRACE;
+                case VDF.R_BRACE:
+                    this.pos++;
+                    return R_BRACE;
+                case VDF.HASH:
+                    if (!this.scanDirective()) {
+                        return INCOMPLETE;
+                    }
+                    return DIRECTIVE;
+                case VDF.L_BRACKET:
+                    if (!this.scanConditional()) {
+                        return INCOMPLETE;
+                    }
+                    return CONDITIONAL;
+                case VDF.SLASH:
+                    if (i + 1 == n && this.partial) {
+                        return INCOMPLETE;
+                    }
+                    if (i + 1 < n && b.get(i + 1) == VDF.SLASH) {
+                        // It's a comment. Skip to the next line.
+                        if (!this.skipLine()) {
+                            return INCOMPLETE;
+                        }
+                        if (this.reportComments) {
+                            return COMMENT;
+                        }
+                        break;
+                    }
+                default:
+                    if (!this.scanBare()) {
+                        return INCOMPLETE;
+                    }
+                    return STRING;
+            }
+        }
+    }
+
+    @Override
+    String getString() throws JSONException {
+        return this.decode(this.tokenStart, this.tokenEnd, this.tokenEscaped);
+    }
+
+    @Override
+    Object getLazyString() throws JSONException {
+        if (this.windowed || this.tokenEscaped) {
+            // Escape sequences are resolved now so that bad ones are still
+            // reported while parsing.
+            return this.getString();
+        }
+        return new LazyString(this.buf, this.tokenStart,
+                this.tokenEnd - this.tokenStart);
+    }
+
+    @Override
+    int tokenLength() {
+        return this.tokenEnd - this.tokenStart;
+    }
+
+    @Override
+    int tokenChar(int index) {
+        return this.buf.get(this.tokenStart + index) & 0xFF;
+    }
+
+    @Override
+    void saveString() {
+        this.savedStart = this.tokenStart;
+        this.savedEnd = this.tokenEnd;
+        this.savedEscaped = this.tokenEscaped;
+    }
+
+    @Override
+    String getSavedString() throws JSONException {
+        return this.decode(this.savedStart, this.savedEnd, this.savedEscaped);
+    }
+
+    @Override
+    Object getSavedKey() throws JSONException {
+        if (this.windowed) {
+            return this.getSavedString();
+        }
+        // ASCII is compared in place. Anything else is compared re-encoded,
+        // so that malformed UTF-8 matches the replacement characters it
+        // decodes to.
+        boolean ascii = !this.savedEscaped;
+        for (int i = this.savedStart; ascii && i < this.savedEnd; i++) {
+            ascii = this.buf.get(i) >= 0;
+        }
+        if (!ascii) {
+            return ByteBuffer.wrap(this.getSavedString()
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        ByteBuffer key = this.buf.duplicate();
+        key.limit(this.savedEnd).position(this.savedStart);
+        return key;
+    }
+
+    @Override
+    boolean savedEquals(String s) throws JSONException {
+        if (this.savedEscaped) {
+            return this.getSavedString().equals(s);
+        }
+
+        // UTF-8 never takes fewer bytes than there are characters.
+        int length = this.savedEnd - this.savedStart;
+        if (length < s.length()) {
+            return false;
+        }
+
+        // Compare ASCII in place; anything else is decoded.
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                return this.getSavedString().equals(s);
+            }
+            if (this.buf.get(this.savedStart + i) != c) {
+                return false;
+            }
+        }
+        return length == n;
+    }
+
+    @Override
+    void releaseString() {
+        this.savedStart = -1;
+    }
+
+    @Override
+    int peekChar() {
+        if (!this.bomChecked && !this.skipBOM()) {
+            return MORE;
+        }
+
+        final ByteBuffer b = this.buf;
+        final int n = this.limit;
+
+        for (;;) {
+            int i = this.pos;
+
+            byte c = 0;
+            while (i < n && (c = b.get(i)) <= ' ' && c >= 0) {
+                i++;
+            }
+            this.pos = i;
+
+            if (i == n) {
+                return this.partial ? MORE : END;
+            }
+            if (c != VDF.SLASH || this.reportComments) {
+                return c & 0xFF;
+            }
+            if (i + 1 == n) {
+                return this.partial ? MORE : c;
+            }
+            if (b.get(i + 1) != VDF.SLASH) {
+                return c;
+            }
+
+            // Skip the comment without touching the current token.
+            i += 2;
+            while (i < n && b.get(i) != VDF.NEWLINE) {
+                i++;
+            }
+            if (i == n && this.partial) {
+                return MORE;
+            }
+            this.pos = i;
+        }
+    }
+
+    /**
+     * Decodes a String token.
+     *
+     * @param start Start of the token in the buffer.
+     * @param end End of the token in the buffer.
+     * @param escaped Whether or not the token contains escape sequences.
+     */
+    private String decode(int start, int end, boolean escaped)
+            throws JSONException {
+        int length = end - start;
+        if (this.scratch.length < length) {
+            this.scratch = new byte[Math.max(length, this.scratch.length * 2)];
+        }
+
+        final byte[] s = this.scratch;
+        this.src.limit(end).position(start);
+        this.src.get(s, 0, length);
+
+        if (escaped) {
+            // Escape sequences are ASCII, so they can be resolved before
+            // decoding.
+            int w = 0;
+            for (int i = 0; i < length; i++, w++) {
+                byte c = s[i];
+                if (c == VDF.BACK_SLASH) {
+                    char u = ++i < length ? (char) s[i] : '\0';
+                    c = (byte) this.unescape(u);
+                }
+                s[w] = c;
+            }
+            length = w;
+        }
+
+        return new String(s, 0, length, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    JSONException syntaxError(String message) {
+        long lines = this.line + 1;
+        long lineStart = this.lineStart;
+        for (int i = this.buf.position(); i < this.pos; i++) {
+            if (this.buf.get(i) == VDF.NEWLINE) {
+                lines++;
+                lineStart = this.offset + i;
+            }
+        }
+
+        long at = this.offset + this.pos;
+        return new JSONException(message + " at " + at + " [character "
+                + (at - lineStart) + " line " + lines + "]");
+    }
+
+    /**
+     * Locates the end of the String starting at the cursor, leaving the
+     * cursor after the closing quote. An unterminated String runs to the end
+     * of the input. A String cut off by the end of the bytes fed so far is
+     * scanned from where it was left once more input is fed, rather than
+     * from its start.
+     *
+     * @return Whether or not the String was found, which is only false if
+     * more input may follow its end.
+     */
+    private boolean scanString() {
+        final ByteBuffer b = this.buf;
+        final int n = this.limit;
+        boolean escaped = false;
+        int i = this.tokenStart = this.pos + 1;
+        if (this.partialStart == this.pos) {
+            escaped = this.partialEscaped;
+            i = this.partialScanned;
+        }
+
+        while (i < n) {
+            byte c = b.get(i);
+            if (c == VDF.QUOTE) {
+                break;
+            } else if (c == VDF.BACK_SLASH) {
+                // Skip the escaped character; it's validated later.
+                escaped = true;
+                i += 2;
+            } else {
+                i++;
+            }
+        }
+
+        if (i >= n && this.partial) {
+            this.partialStart = this.pos;
+            this.partialScanned = i;
+            this.partialEscaped = escaped;
+            return false;
+        }
+
+        this.partialStart = -1;
+        this.tokenEnd = Math.min(i, n);
+        this.pos = Math.min(i + 1, n);
+        this.tokenEscaped = escaped;
+        return true;
+    }
+
+    /**
+     * Locates the end of the unquoted String starting at the cursor, leaving
+     * the cursor after it.
+     *
+     * @return Whether or not the end of the String was found, which is only
+     * false if more input may follow.
+     */
+    private boolean scanBare() {
+        final ByteBuffer b = this.buf;
+        final int n = this.limit;
+        int i = this.pos;
+
+        for (;;) {
+            while (i < n && isBareChar(b.get(i))) {
+                i++;
+            }
+            if (i == n || b.get(i) != VDF.SLASH) {
+                break;
+            }
+            if (i + 1 == n && this.partial) {
+                return false;
+            }
+            if (i + 1 < n && b.get(i + 1) == VDF.SLASH) {
+                break;
+            }
+            // A single slash doesn't start a comment.
+            i++;
+        }
+
+        if (i == n && this.partial) {
+            return false;
+        }
+
+        this.tokenStart = this.pos;
+        this.pos = this.tokenEnd = i;
+        this.tokenEscaped = false;
+        return true;
+    }
+
+    /**
+     * Locates the name of the directive starting at the cursor, leaving the
+     * cursor after it.
+     *
+     * @return Whether or not the name was found, which is only false if more
+     * input may follow its end.
+     * @throws JSONException If the hash isn't followed by a name.
+     */
+    private boolean scanDirective() throws JSONException {
+        final ByteBuffer b = this.buf;
+        final int n = this.limit;
+        int i = this.tokenStart = this.pos + 1;
+
+        while (i < n && isDirectiveChar(b.get(i))) {
+            i++;
+        }
+
+        if (i == n && this.partial) {
+            return false;
+        }
+        if (i == this.tokenStart) {
+            throw this.unexpectedCharacter(VDF.HASH);
+        }
+
+        this.pos = i;
+        this.tokenEnd = i;
+        this.tokenEscaped = false;
+        return true;
+    }
+
+    /**
+     * Copies the expression of the conditional starting at the cursor,
+     * leaving the cursor after its closing bracket.
+     *
+     * @return Whether or not the conditional was found, which is only false
+     * if more input may follow its end.
+     * @throws JSONException If the conditional isn't closed.
+     */
+    private boolean scanConditional() throws JSONException {
+        final ByteBuffer b = this.buf;
+        final int n = this.limit;
+        int i = this.pos + 1;
+        byte c = 0;
+
+        while (i < n && (c = b.get(i)) != VDF.R_BRACKET && c != VDF.NEWLINE) {
+            i++;
+        }
+
+        if (i == n && this.partial) {
+            return false;
+        }
+        if (i == n || c != VDF.R_BRACKET) {
+            this.pos = i;
+            throw this.syntaxError("Unterminated conditional");
+        }
+
+        this.condition.setLength(0);
+        for (int j = this.pos + 1; j < i; j++) {
+            this.condition.append((char) (b.get(j) & 0xFF));
+        }
+        this.pos = i + 1;
+        return true;
+    }
+
+    /**
+     * Skips the rest of the line a comment starts on, keeping track of the
+     * comment's text.
+     *
+     * @return Whether or not the end of the line was found, which is only
+     * false if more input may follow.
+     */
+    private boolean skipLine() {
+        final ByteBuffer b = this.buf;
+        final int n = this.limit;
+        int i = this.tokenStart = this.pos + 2;
+
+        while (i < n && b.get(i) != VDF.NEWLINE) {
+            i++;
+        }
+
+        if (i == n && this.partial) {
+            return false;
+        }
+
+        this.pos = i;
+        this.tokenEnd = i > this.tokenStart && b.get(i - 1) == '\r'
+                ? i - 1 : i;
+        this.tokenEscaped = false;
+        return true;
+    }
+
+    /**
+     * A String token left in the input until it is read. Once decoded, the
+     * String is kept and the buffer is let go of, so that a mapped file can
+     * be unmapped once all of its values have been read.
+     */
+    private static final class LazyString implements JSONLazyValue {
+
+        private volatile ByteBuffer data;
+        private final int start;
+        private final int length;
+        private volatile String value;
+
+        LazyString(ByteBuffer data, int start, int length) {
+            this.data = data;
+            this.start = start;
+            this.length = length;
+        }
+
+        @Override
+        public Object getValue() {
+            String value = this.value;
+            if (value == null) {
+                ByteBuffer data = this.data;
+                if (data == null) {
+                    // Another thread decoded it; the value was set first.
+                    return this.value;
+                }
+                value = decode(data, this.start, this.length);
+                this.value = value;
+                this.data = null;
+            }
+            return value;
+        }
+
+        private static String decode(ByteBuffer data, int start,
+                int length) {
+            if (data.hasArray()) {
+                return new String(data.array(), data.arrayOffset() + start,
+                        length, StandardCharsets.UTF_8);
+            }
+
+            // Absolute reads leave the buffer's position alone, so values
+            // sharing a buffer can be read from any thread.
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = data.get(start + i);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
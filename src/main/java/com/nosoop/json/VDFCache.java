@@ -0,0 +1,482 @@
+package com.nosoop.json;
+
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 nosoop
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Keeps the results of parsing VDF files as snapshots in a directory, so that
+ * a file that hasn't changed since it was last parsed is loaded instead of
+ * parsed again, even by another JVM.
+ *
+ * A snapshot is kept per file and set of conversion options, and is used for
+ * as long as the size and modification time of the file stay the same. It
+ * holds the parsed values in a compact binary form that keeps their types.
+ * Set the cache in the options to use it, for example, <pre>
+ * VDFCache cache = new VDFCache(cacheDirectory, 256L &lt;&lt; 20);
+ * JSONObject manifest = VDF.toJSONObject(path, new VDFOptions()
+ *         .setCache(cache));</pre>
+ *
+ * The directory is kept under a size limit by deleting the snapshots that
+ * were least recently used. Snapshots are written to a temporary file and
+ * moved into place, so several JVMs can share a directory: a snapshot being
+ * read is always complete, and one that is deleted or replaced while it is
+ * looked up is parsed again. Options that resolve <code>#include</code> and
+ * <code>#base</code> directives bypass the cache, since the files a document
+ * includes can change by themselves.
+ *
+ * @author nosoop < nosoop at users.noreply.github.com >
+ */
+public class VDFCache {
+
+    /**
+     * Identifies a snapshot, "VDFS".
+     */
+    private static final int MAGIC = 0x56444653;
+    /**
+     * Version of the snapshot format.
+     */
+    private static final int VERSION = 1;
+    /**
+     * Suffix of snapshot files.
+     */
+    private static final String SUFFIX = ".snap";
+    /**
+     * Suffix of snapshots being written.
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+    /**
+     * Age after which a temporary file is assumed to be left over from a
+     * writer that stopped.
+     */
+    private static final long STALE_TEMP_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /*
+     * Snapshot entry types. A snapshot is a header followed by the entries
+     * of the root set, each a type byte, a key and a payload, and an END.
+     */
+    private static final byte TYPE_SET = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_DOUBLE = 4;
+    private static final byte TYPE_BOOLEAN = 5;
+    private static final byte TYPE_END = 8;
+
+    /**
+     * The directory holding the snapshots.
+     */
+    private final Path directory;
+    /**
+     * The most bytes of snapshots to keep.
+     */
+    private final long maxSize;
+    /**
+     * Estimated size of the snapshots in the directory, or -1 if it hasn't
+     * been measured yet. Snapshots written by other JVMs are only counted
+     * when the directory is trimmed.
+     */
+    private final AtomicLong size = new AtomicLong(-1);
+
+    /**
+     * Creates a cache keeping snapshots in a directory.
+     *
+     * @param directory The directory to keep snapshots in. It is created if
+     * it doesn't exist.
+     * @param maxSize The most bytes of snapshots to keep in the directory.
+     * @throws IOException If the directory could not be created.
+     */
+    public VDFCache(Path directory, long maxSize) throws IOException {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Negative size: " + maxSize);
+        }
+        this.directory = Files.createDirectories(directory);
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Gets the directory holding the snapshots.
+     *
+     * @return The directory.
+     */
+    public Path getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * Loads the snapshot of a file parsed with a set of options, or parses
+     * the file and keeps a snapshot of the result if there is no snapshot
+     * for the file as it is.
+     *
+     * @param path Input file, assumed to be in the Valve Data Format.
+     * @param options The conversion options.
+     * @return A JSON representation of the assumed-VDF data.
+     * @throws IOException If the file could not be opened or mapped.
+     * @throws JSONException Parse exception?
+     */
+    JSONObject toJSONObject(Path path, VDFOptions options)
+            throws IOException, JSONException {
+        String source = describe(path, options);
+        Path snapshot = this.directory.resolve(digest(source) + SUFFIX);
+        long fileSize = Files.size(path);
+        long modified = Files.getLastModifiedTime(path).toMillis();
+
+        JSONObject result = this.load(snapshot, source, fileSize, modified,
+                options);
+        if (result != null) {
+            return result;
+        }
+
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.READ)) {
+            result = VDF.toJSONObject(channel, options);
+        }
+        this.save(snapshot, source, fileSize, modified, result);
+        return result;
+    }
+
+    /**
+     * Describes a file and the options that change how it is parsed; the
+     * snapshot of the file is named by its digest.
+     */
+    private static String describe(Path path, VDFOptions options) {
+        return path.toAbsolutePath().normalize() + "\u0000"
+                + options.isConvertArrays() + "," + options.isTypedValues()
+                + "," + options.isPreserveDuplicates() + ","
+                + options.getMaxDepth() + "," + options.getSymbolNames();
+    }
+
+    private static String digest(String source) {
+        byte[] hash;
+        try {
+            hash = MessageDigest.getInstance("SHA-1").digest(
+                    source.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-1.
+            throw new IllegalStateException(e);
+        }
+
+        StringBuilder sb = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16))
+                    .append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Reads a snapshot, marking it as used.
+     *
+     * @return The parsed file, or null if there's no usable snapshot of the
+     * file as it is.
+     */
+    private JSONObject load(Path snapshot, String source, long fileSize,
+            long modified, VDFOptions options) throws JSONException {
+        ByteBuffer in;
+        try {
+            in = ByteBuffer.wrap(Files.readAllBytes(snapshot));
+        } catch (IOException e) {
+            // Not written yet, or deleted by another JVM.
+            return null;
+        }
+
+        try {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION
+                    || !readString(in).equals(source)
+                    || in.getLong() != fileSize || in.getLong() != modified) {
+                return null;
+            }
+            JSONObject result = read(in, new VDFTreeBuilder(options));
+            if (result == null) {
+                return null;
+            }
+            Files.setLastModifiedTime(snapshot,
+                    FileTime.fromMillis(System.currentTimeMillis()));
+            return result;
+        } catch (BufferUnderflowException e) {
+            return null;
+        } catch (IOException e) {
+            // The snapshot was deleted after it was read.
+            return null;
+        }
+    }
+
+    /**
+     * Reads the entries of a snapshot into a builder.
+     *
+     * @return The document, or null if the snapshot is malformed.
+     */
+    private static JSONObject read(ByteBuffer in, VDFTreeBuilder builder)
+            throws JSONException {
+        int depth = 0;
+
+        for (;;) {
+            byte type = in.get();
+            if (type == TYPE_END) {
+                if (depth == 0) {
+                    return in.hasRemaining() ? null : builder.finish();
+                }
+                builder.endObject();
+                depth--;
+                continue;
+            }
+
+            String key = readString(in);
+            switch (type) {
+                case TYPE_SET:
+                    builder.startObject(key);
+                    depth++;
+                    break;
+                case TYPE_STRING:
+                    builder.value(key, readString(in));
+                    break;
+                case TYPE_INT:
+                    builder.value(key, in.getInt());
+                    break;
+                case TYPE_LONG:
+                    builder.value(key, in.getLong());
+                    break;
+                case TYPE_DOUBLE:
+                    builder.value(key, in.getDouble());
+                    break;
+                case TYPE_BOOLEAN:
+                    builder.value(key, in.get() != 0);
+                    break;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0 || length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String s = new String(in.array(), in.arrayOffset() + in.position(),
+                length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+
+    /**
+     * Writes a snapshot and trims the directory if it grew too large. A
+     * snapshot that can't be written is skipped.
+     */
+    private void save(Path snapshot, String source, long fileSize,
+            long modified, JSONObject result) throws JSONException {
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(this.directory, "snapshot",
+                    TEMP_SUFFIX);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeString(out, source);
+                out.writeLong(fileSize);
+                out.writeLong(modified);
+                write(out, result);
+            }
+            long written = Files.size(temp);
+            // A snapshot being replaced no longer counts.
+            long replaced = 0;
+            try {
+                replaced = Files.size(snapshot);
+            } catch (IOException e) {
+            }
+            try {
+                Files.move(temp, snapshot, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, snapshot,
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            temp = null;
+
+            long total = this.size.get();
+            if (total < 0 || this.size.addAndGet(written - replaced)
+                    > this.maxSize) {
+                this.trim();
+            }
+        } catch (IOException e) {
+            // The result is still returned; it is parsed again next time.
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the entries of a document.
+     */
+    private static void write(final DataOutputStream out, JSONObject object)
+            throws JSONException, IOException {
+        new VDFTreeWalker() {
+            @Override
+            void startObject(String key) throws IOException {
+                out.writeByte(TYPE_SET);
+                writeString(out, key);
+            }
+
+            @Override
+            void value(String key, Object value) throws IOException {
+                if (value instanceof Integer) {
+                    out.writeByte(TYPE_INT);
+                    writeString(out, key);
+                    out.writeInt((Integer) value);
+                } else if (value instanceof Long) {
+                    out.writeByte(TYPE_LONG);
+                    writeString(out, key);
+                    out.writeLong((Long) value);
+                } else if (value instanceof Double) {
+                    out.writeByte(TYPE_DOUBLE);
+                    writeString(out, key);
+                    out.writeDouble((Double) value);
+                } else if (value instanceof Boolean) {
+                    out.writeByte(TYPE_BOOLEAN);
+                    writeString(out, key);
+                    out.writeBoolean((Boolean) value);
+                } else {
+                    out.writeByte(TYPE_STRING);
+                    writeString(out, key);
+                    writeString(out, value.toString());
+                }
+            }
+
+            @Override
+            void endObject() throws IOException {
+                out.writeByte(TYPE_END);
+            }
+        }.walk(object);
+        out.writeByte(TYPE_END);
+    }
+
+    private static void writeString(DataOutputStream out, String s)
+            throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Deletes the least recently used snapshots until the directory is
+     * within its size limit, along with temporary files left behind.
+     */
+    private synchronized void trim() throws IOException {
+        List<Snapshot> snapshots = new ArrayList<Snapshot>();
+        long total = 0;
+        long now = System.currentTimeMillis();
+
+        try (DirectoryStream<Path> files =
+                Files.newDirectoryStream(this.directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    FileTime modified = Files.getLastModifiedTime(file);
+                    if (name.endsWith(TEMP_SUFFIX)) {
+                        if (now - modified.toMillis() > STALE_TEMP_MILLIS) {
+                            Files.deleteIfExists(file);
+                        }
+                    } else if (name.endsWith(SUFFIX)) {
+                        Snapshot snapshot = new Snapshot(file, modified,
+                                Files.size(file));
+                        snapshots.add(snapshot);
+                        total += snapshot.size;
+                    }
+                } catch (IOException e) {
+                    // Deleted by another JVM in the meantime.
+                }
+            }
+        }
+
+        if (total > this.maxSize) {
+            Collections.sort(snapshots, new Comparator<Snapshot>() {
+                @Override
+                public int compare(Snapshot a, Snapshot b) {
+                    return a.used.compareTo(b.used);
+                }
+            });
+
+            for (int i = 0; i < snapshots.size() && total > this.maxSize;
+                    i++) {
+                Snapshot snapshot = snapshots.get(i);
+                try {
+                    Files.deleteIfExists(snapshot.path);
+                } catch (IOException e) {
+                    // In use elsewhere; it is tried again next time.
+                    continue;
+                }
+                total -= snapshot.size;
+            }
+        }
+        this.size.set(total);
+    }
+
+    /**
+     * A snapshot found in the directory.
+     */
+    private static final class Snapshot {
+
+        final Path path;
+        /**
+         * When the snapshot was last written or loaded.
+         */
+        final FileTime used;
+        final long size;
+
+        Snapshot(Path path, FileTime used, long size) {
+            this.path = path;
+            this.used = used;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,686 @@
+package com.nosoop.json;
+
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 nosoop
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import org.json.JSONException;
+import org.json.JSONLazyValue;
+import org.json.JSONTokener;
+
+/**
+ * Splits VDF text held in characters into tokens.
+ *
+ * The lexer works over a window of characters that is filled in bulk from a
+ * Reader (or that already holds the whole input), and scans it with a single
+ * cursor. Quoted strings are only located while scanning; they are not
+ * unescaped into a String until {@link #getString()} is called.
+ *
+ * @author nosoop < nosoop at users.noreply.github.com >
+ */
+class VDFCharLexer extends VDFLexer {
+
+    /**
+     * Size of the window used when reading from a Reader.
+     */
+    private static final int BUFFER_SIZE = 8192;
+    /**
+     * The source to fill the window from, or null if the window already holds
+     * all of the input.
+     */
+    private Reader reader;
+    /**
+     * Whether or not the window is filled from a Reader, rather than holding
+     * all of the input for as long as the lexer exists.
+     */
+    private boolean windowed;
+    /**
+     * The character window.
+     */
+    private char[] buf;
+    /**
+     * Position of the cursor in the window.
+     */
+    private int pos;
+    /**
+     * End of the valid characters in the window.
+     */
+    private int limit;
+    /**
+     * Offset of the start of the window in the input.
+     */
+    private long offset;
+    /**
+     * Number of lines that have been discarded from the window.
+     */
+    private long line;
+    /**
+     * Start and end of the current String token within the window, excluding
+     * quotes.
+     */
+    private int tokenStart, tokenEnd;
+    /**
+     * Whether or not the current String token contains escape sequences.
+     */
+    private boolean tokenEscaped;
+    /**
+     * Start and end of the saved String token within the window, or -1 if
+     * no token is saved.
+     */
+    private int savedStart = -1, savedEnd;
+    /**
+     * Whether or not the saved String token contains escape sequences.
+     */
+    private boolean savedEscaped;
+
+    /**
+     * Creates a lexer that reads its input from a Reader.
+     *
+     * @param reader The Reader containing VDF text.
+     */
+    VDFCharLexer(Reader reader) {
+        this.reader = reader;
+        this.buf = new char[BUFFER_SIZE];
+        this.windowed = true;
+    }
+
+    /**
+     * Creates a lexer that reads its input from a JSONTokener. The tokener
+     * is drained in bulk, so it should not be used for anything else
+     * afterwards.
+     *
+     * @param x The JSONTokener containing VDF text.
+     */
+    VDFCharLexer(final JSONTokener x) {
+        this(new Reader() {
+            @Override
+            public int read(char[] cbuf, int off, int len) throws IOException {
+                try {
+                    return x.next(cbuf, off, len);
+                } catch (JSONException e) {
+                    throw new IOException(e);
+                }
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+    }
+
+    /**
+     * Creates a lexer over characters that are already in memory. The array
+     * is used as the window directly and is not copied.
+     *
+     * @param data The array containing VDF text.
+     * @param start Index of the first character to lex.
+     * @param end Index past the last character to lex.
+     */
+    VDFCharLexer(char[] data, int start, int end) {
+        this.buf = data;
+        this.pos = start;
+        this.limit = end;
+    }
+
+    @Override
+    VDFLexer copy() {
+        return this.windowed ? null
+                : new VDFCharLexer(this.buf, this.pos, this.limit);
+    }
+
+    @Override
+    void readFully() throws JSONException {
+        if (!this.windowed) {
+            return;
+        }
+        while (this.fill(this.pos)) {
+            // The window grows to hold everything from the cursor on.
+        }
+        this.windowed = false;
+    }
+
+    @Override
+    long position() {
+        return this.offset + this.pos;
+    }
+
+    @Override
+    int nextToken() throws JSONException {
+        for (;;) {
+            if (this.pos >= this.limit && !this.fill(this.pos)) {
+                return EOF;
+            }
+
+            final char[] b = this.buf;
+            int i = this.pos;
+            final int n = this.limit;
+
+            // Null characters are disregarded along with whitespace.
+            while (i < n && b[i] <= ' ') {
+                i++;
+            }
+            this.pos = i;
+
+            if (i == n) {
+                continue;
+            }
+
+            switch (b[i]) {
+                case VDF.QUOTE:
+                    this.scanString();
+                    return STRING;
+                case VDF.L_BRACE:
+                    this.pos++;
+                    return L_BRACE;
+                case VDF.R_BRACE:
+                    this.pos++;
+                    return R_BRACE;
+                case VDF.HASH:
+                    this.scanDirective();
+                    return DIRECTIVE;
+                case VDF.L_BRACKET:
+                    this.scanConditional();
+                    return CONDITIONAL;
+                case VDF.SLASH:
+                    if (this.peek(1) == VDF.SLASH) {
+                        // It's a comment. Skip to the next line.
+                        this.skipLine();
+                        if (this.reportComments) {
+                            return COMMENT;
+                        }
+                        break;
+                    }
+                default:
+                    this.scanBare();
+                    return STRING;
+            }
+        }
+    }
+
+    @Override
+    String getString() throws JSONException {
+        return this.decode(this.tokenStart, this.tokenEnd, this.tokenEscaped);
+    }
+
+    @Override
+    Object getLazyString() throws JSONException {
+        if (this.windowed || this.tokenEscaped) {
+            // Escape sequences are resolved now so that bad ones are still
+            // reported while parsing.
+            return this.getString();
+        }
+        return new LazyString(this.buf, this.tokenStart,
+                this.tokenEnd - this.tokenStart);
+    }
+
+    @Override
+    int tokenLength() {
+        return this.tokenEnd - this.tokenStart;
+    }
+
+    @Override
+    int tokenChar(int index) {
+        return this.buf[this.tokenStart + index];
+    }
+
+    @Override
+    void saveString() {
+        this.savedStart = this.tokenStart;
+        this.savedEnd = this.tokenEnd;
+        this.savedEscaped = this.tokenEscaped;
+    }
+
+    @Override
+    String getSavedString() throws JSONException {
+        return this.decode(this.savedStart, this.savedEnd, this.savedEscaped);
+    }
+
+    @Override
+    Object getSavedKey() throws JSONException {
+        if (this.windowed) {
+            return this.getSavedString();
+        }
+        // The window holds all of the input and never changes, so a view of
+        // it keeps its contents.
+        return this.savedEscaped ? CharBuffer.wrap(this.getSavedString())
+                : CharBuffer.wrap(this.buf, this.savedStart,
+                        this.savedEnd - this.savedStart);
+    }
+
+    @Override
+    boolean savedEquals(String s) throws JSONException {
+        if (this.savedEscaped) {
+            return this.getSavedString().equals(s);
+        }
+
+        int length = this.savedEnd - this.savedStart;
+        if (length != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (this.buf[this.savedStart + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    void releaseString() {
+        this.savedStart = -1;
+    }
+
+    @Override
+    int peekChar() throws JSONException {
+        for (;;) {
+            if (this.pos >= this.limit && !this.fill(this.pos)) {
+                return END;
+            }
+
+            final char[] b = this.buf;
+            int i = this.pos;
+            final int n = this.limit;
+
+            while (i < n && b[i] <= ' ') {
+                i++;
+            }
+            this.pos = i;
+
+            if (i == n) {
+                continue;
+            }
+            if (b[i] != VDF.SLASH || this.reportComments
+                    || this.peek(1) != VDF.SLASH) {
+                return this.buf[this.pos];
+            }
+
+            // Skip the comment without touching the current token.
+            for (;;) {
+                final char[] w = this.buf;
+                final int m = this.limit;
+                i = this.pos;
+                while (i < m && w[i] != VDF.NEWLINE) {
+                    i++;
+                }
+                this.pos = i;
+                if (i < m || !this.fill(this.pos)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Unescapes a String token.
+     *
+     * @param start Start of the token within the window.
+     * @param end End of the token within the window.
+     * @param escaped Whether or not the token contains escape sequences.
+     */
+    private String decode(int start, int end, boolean escaped)
+            throws JSONException {
+        if (!escaped) {
+            return new String(this.buf, start, end - start);
+        }
+
+        StringBuilder sb = new StringBuilder(end - start);
+        final char[] b = this.buf;
+
+        for (int i = start; i < end; i++) {
+            char c = b[i];
+            if (c != VDF.BACK_SLASH) {
+                sb.append(c);
+                continue;
+            }
+
+            // Unescape character.
+            char u = ++i < end ? b[i] : '\0';
+            sb.append(this.unescape(u));
+        }
+
+        return sb.toString();
+    }
+
+    @Override
+    JSONException syntaxError(String message) {
+        long lines = this.line + 1;
+        int lineStart = -1;
+        for (int i = 0; i < this.pos; i++) {
+            if (this.buf[i] == VDF.NEWLINE) {
+                lines++;
+                lineStart = i;
+            }
+        }
+
+        return new JSONException(message + " at " + (this.offset + this.pos)
+                + " [character " + (this.pos - lineStart) + " line " + lines
+                + "]");
+    }
+
+    /**
+     * Locates the end of the String starting at the cursor, leaving the
+     * cursor after the closing quote. An unterminated String runs to the end
+     * of the input.
+     */
+    private void scanString() throws JSONException {
+        this.tokenStart = ++this.pos;
+        boolean escaped = false;
+        int i = this.pos;
+
+        for (;;) {
+            if (i >= this.limit) {
+                int start = this.tokenStart;
+                if (!this.fill(start)) {
+                    this.tokenEnd = this.limit;
+                    this.pos = this.limit;
+                    break;
+                }
+                i -= start - this.tokenStart;
+            }
+
+            final char[] b = this.buf;
+            final int n = this.limit;
+            while (i < n) {
+                char c = b[i];
+                if (c == VDF.QUOTE) {
+                    break;
+                } else if (c == VDF.BACK_SLASH) {
+                    // Skip the escaped character; it's validated later.
+                    escaped = true;
+                    i += 2;
+                } else {
+                    i++;
+                }
+            }
+
+            if (i < n) {
+                this.tokenEnd = i;
+                this.pos = i + 1;
+                break;
+            }
+        }
+
+        this.tokenEscaped = escaped;
+    }
+
+    /**
+     * Locates the end of the unquoted String starting at the cursor, leaving
+     * the cursor after it.
+     */
+    private void scanBare() throws JSONException {
+        int i = this.tokenStart = this.pos;
+
+        for (;;) {
+            final char[] b = this.buf;
+            final int n = this.limit;
+
+            while (i < n && isBareChar(b[i])) {
+                i++;
+            }
+
+            if (i + 1 < n && b[i] == VDF.SLASH && b[i + 1] != VDF.SLASH) {
+                // A single slash doesn't start a comment.
+                i++;
+                continue;
+            }
+            if (i + 1 < n || (i < n && b[i] != VDF.SLASH)) {
+                break;
+            }
+
+            // Filling may move the window even if nothing more is read.
+            int start = this.tokenStart;
+            boolean more = this.fill(start);
+            i -= start - this.tokenStart;
+            if (!more) {
+                if (i < this.limit) {
+                    // A slash at the end of the input.
+                    i++;
+                }
+                break;
+            }
+        }
+
+        this.pos = this.tokenEnd = i;
+        this.tokenEscaped = false;
+    }
+
+    /**
+     * Locates the name of the directive starting at the cursor, leaving the
+     * cursor after it.
+     *
+     * @throws JSONException If the hash isn't followed by a name.
+     */
+    private void scanDirective() throws JSONException {
+        int i = this.tokenStart = this.pos + 1;
+
+        for (;;) {
+            final char[] b = this.buf;
+            final int n = this.limit;
+
+            while (i < n && isDirectiveChar(b[i])) {
+                i++;
+            }
+
+            if (i < n) {
+                break;
+            }
+
+            // Filling may move the window even if nothing more is read.
+            int start = this.tokenStart;
+            boolean more = this.fill(start);
+            i -= start - this.tokenStart;
+            if (!more) {
+                break;
+            }
+        }
+
+        this.pos = i;
+        if (i == this.tokenStart) {
+            this.pos = this.tokenStart - 1;
+            throw this.unexpectedCharacter(VDF.HASH);
+        }
+        this.tokenEnd = i;
+        this.tokenEscaped = false;
+    }
+
+    /**
+     * Copies the expression of the conditional starting at the cursor,
+     * leaving the cursor after its closing bracket.
+     *
+     * @throws JSONException If the conditional isn't closed.
+     */
+    private void scanConditional() throws JSONException {
+        this.condition.setLength(0);
+        int i = ++this.pos;
+
+        for (;;) {
+            final char[] b = this.buf;
+            final int n = this.limit;
+            int start = i;
+
+            while (i < n && b[i] != VDF.R_BRACKET && b[i] != VDF.NEWLINE) {
+                i++;
+            }
+            this.condition.append(b, start, i - start);
+            this.pos = i;
+
+            if (i < n) {
+                break;
+            }
+            if (!this.fill(this.pos)) {
+                break;
+            }
+            i = this.pos;
+        }
+
+        if (this.pos == this.limit || this.buf[this.pos] != VDF.R_BRACKET) {
+            throw this.syntaxError("Unterminated conditional");
+        }
+        this.pos++;
+    }
+
+    /**
+     * Skips the rest of the line a comment starts on, keeping track of the
+     * comment's text.
+     */
+    private void skipLine() throws JSONException {
+        int i = this.tokenStart = this.pos + 2;
+
+        for (;;) {
+            final char[] b = this.buf;
+            final int n = this.limit;
+
+            while (i < n && b[i] != VDF.NEWLINE) {
+                i++;
+            }
+
+            if (i < n) {
+                break;
+            }
+
+            // Filling may move the window even if nothing more is read.
+            int start = this.tokenStart;
+            boolean more = this.fill(start);
+            i -= start - this.tokenStart;
+            if (!more) {
+                break;
+            }
+        }
+
+        this.pos = i;
+        this.tokenEnd = i > this.tokenStart && this.buf[i - 1] == '\r'
+                ? i - 1 : i;
+        this.tokenEscaped = false;
+    }
+
+    /**
+     * Gets a character ahead of the cursor without consuming it.
+     *
+     * @param ahead How far ahead of the cursor to look.
+     * @return The character, or the null character if there is no such
+     * character.
+     */
+    private char peek(int ahead) throws JSONException {
+        if (this.pos + ahead >= this.limit && !this.fill(this.pos)) {
+            return '\0';
+        }
+        return this.pos + ahead < this.limit ? this.buf[this.pos + ahead] : '\0';
+    }
+
+    /**
+     * Reads more input into the window, discarding everything before the
+     * given index. Indices into the window are shifted accordingly.
+     *
+     * @param keep Index of the first character that must stay in the window.
+     * @return Whether or not any more characters were read.
+     */
+    private boolean fill(int keep) throws JSONException {
+        if (this.reader == null) {
+            return false;
+        }
+
+        if (this.savedStart >= 0 && this.savedStart < keep) {
+            keep = this.savedStart;
+        }
+
+        if (keep > 0) {
+            for (int i = 0; i < keep; i++) {
+                if (this.buf[i] == VDF.NEWLINE) {
+                    this.line++;
+                }
+            }
+            System.arraycopy(this.buf, keep, this.buf, 0, this.limit - keep);
+            this.offset += keep;
+            this.limit -= keep;
+            this.pos -= keep;
+            this.tokenStart -= keep;
+            this.tokenEnd -= keep;
+            if (this.savedStart >= 0) {
+                this.savedStart -= keep;
+                this.savedEnd -= keep;
+            }
+        }
+
+        if (this.limit > this.buf.length / 2) {
+            // A single token is taking up most of the window; make room.
+            char[] grown = new char[this.buf.length * 2];
+            System.arraycopy(this.buf, 0, grown, 0, this.limit);
+            this.buf = grown;
+        }
+
+        try {
+            int read;
+            do {
+                read = this.reader.read(this.buf, this.limit,
+                        this.buf.length - this.limit);
+            } while (read == 0);
+
+            if (read < 0) {
+                this.reader = null;
+                return false;
+            }
+
+            this.limit += read;
+            return true;
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+    }
+
+    /**
+     * A String token left in the input until it is read. Once decoded, the
+     * String is kept and the input is let go of.
+     */
+    private static final class LazyString implements JSONLazyValue {
+
+        private volatile char[] data;
+        private final int start;
+        private final int length;
+        private volatile String value;
+
+        LazyString(char[] data, int start, int length) {
+            this.data = data;
+            this.start = start;
+            this.length = length;
+        }
+
+        @Override
+        public Object getValue() {
+            String value = this.value;
+            if (value == null) {
+                char[] data = this.data;
+                if (data == null) {
+                    // Another thread decoded it; the value was set first.
+                    return this.value;
+                }
+                value = new String(data, this.start, this.length);
+                this.value = value;
+                this.data = null;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.nosoop.json;
+
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 nosoop
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+import org.json.JSONException;
+
+/**
+ * Receives the contents of a VDF document as it is parsed by
+ * {@link VDF#parse(String, VDFHandler)}, without a JSONObject being built.
+ *
+ * Events arrive in document order. Every call to {@link #startObject(String)}
+ * is balanced by a call to {@link #endObject()}, even if the input ends early.
+ *
+ * @author nosoop < nosoop at users.noreply.github.com >
+ */
+public interface VDFHandler {
+
+    /**
+     * Called when a nested KeyValue set is opened.
+     *
+     * @param key The key of the nested KeyValue set.
+     * @throws JSONException To stop parsing.
+     */
+    void startObject(String key) throws JSONException;
+
+    /**
+     * Called for each key with a String value.
+     *
+     * @param key The key.
+     * @param value The value, with escape sequences resolved.
+     * @throws JSONException To stop parsing.
+     */
+    void keyValue(String key, String value) throws JSONException;
+
+    /**
+     * Called when the most recently opened nested KeyValue set is closed.
+     * A set rejected by a conditional after its closing brace, as in
+     * <code>"key" { ... } [$X360]</code>, has already been passed on by
+     * then, and is not taken back.
+     *
+     * @throws JSONException To stop parsing.
+     */
+    void endObject() throws JSONException;
+
+    /**
+     * Called for each C++ styled comment.
+     *
+     * @param text The text of the comment following the slashes.
+     * @throws JSONException To stop parsing.
+     */
+    void comment(String text) throws JSONException;
+}
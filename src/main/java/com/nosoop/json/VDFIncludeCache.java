@@ -0,0 +1,330 @@
+package com.nosoop.json;
+
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 nosoop
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Resolves <code>#include</code> and <code>#base</code> directives, keeping
+ * each included file parsed once for as long as it is unchanged.
+ *
+ * The directives are merged the way Valve's KeyValues merges them. The
+ * top-level keys of an <code>#include</code>d file are added to the document
+ * unless it already has them. An <code>#base</code> file is merged in
+ * recursively: keys the document lacks are added at any depth, and nested
+ * KeyValue sets present in both are merged. Includes are applied before
+ * bases, each in the order they appear.
+ *
+ * Parsed files are cached by path and checked against the modification
+ * times of every file they were built from, so one cache can be shared by
+ * many documents and threads. For example, <pre>
+ * VDFIncludeCache includes = new VDFIncludeCache(scriptsDirectory);
+ * JSONObject items = VDF.toJSONObject(path, new VDFOptions()
+ *         .setIncludes(includes));</pre>
+ *
+ * @author nosoop < nosoop at users.noreply.github.com >
+ */
+public class VDFIncludeCache {
+
+    /**
+     * The resolver for file names in directives.
+     */
+    private final VDFIncludeResolver resolver;
+    /**
+     * Parsed files by their absolute path.
+     */
+    private final ConcurrentMap<Path, Entry> cache =
+            new ConcurrentHashMap<Path, Entry>();
+
+    /**
+     * Creates a cache resolving file names with a resolver.
+     *
+     * @param resolver The resolver for file names in directives.
+     */
+    public VDFIncludeCache(VDFIncludeResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    /**
+     * Creates a cache resolving file names relative to the directory of the
+     * including file, or to a base directory for documents not read from a
+     * file.
+     *
+     * @param baseDirectory The directory to resolve file names against if
+     * there is no including file.
+     */
+    public VDFIncludeCache(final Path baseDirectory) {
+        this(new VDFIncludeResolver() {
+            @Override
+            public Path resolve(String name, Path from) {
+                Path dir = from != null ? from.toAbsolutePath().getParent()
+                        : baseDirectory;
+                return dir.resolve(name);
+            }
+        });
+    }
+
+    /**
+     * Discards all cached files.
+     */
+    public void clear() {
+        this.cache.clear();
+    }
+
+    /**
+     * Applies the directives of a document to it.
+     *
+     * @param document The document, without array conversion.
+     * @param directives Pairs of directive names and file names, in order.
+     * @param from The file the document was read from, or null.
+     * @param options The conversion options.
+     * @throws JSONException If an included file could not be read or parsed.
+     */
+    void apply(JSONObject document, List<String> directives, Path from,
+            VDFOptions options) throws JSONException {
+        Set<Path> loading = new HashSet<Path>();
+        if (from != null) {
+            loading.add(from.toAbsolutePath().normalize());
+        }
+        this.apply(document, directives, from, options, loading,
+                new ArrayList<FileVersion>());
+    }
+
+    private void apply(JSONObject document, List<String> directives,
+            Path from, VDFOptions options, Set<Path> loading,
+            List<FileVersion> versions) throws JSONException {
+        List<JSONObject> bases = new ArrayList<JSONObject>();
+
+        for (int i = 0; i < directives.size(); i += 2) {
+            String directive = directives.get(i);
+            String name = directives.get(i + 1);
+
+            Entry entry;
+            try {
+                Path path = this.resolver.resolve(name, from)
+                        .toAbsolutePath().normalize();
+                if (!loading.add(path)) {
+                    throw new JSONException("Circular #" + directive + " of \""
+                            + name + "\"");
+                }
+                try {
+                    entry = this.load(path, options, loading);
+                } finally {
+                    loading.remove(path);
+                }
+            } catch (IOException e) {
+                throw new JSONException("Could not read #" + directive + " \""
+                        + name + "\": " + e);
+            }
+
+            versions.addAll(entry.versions);
+            if (directive.equals("include")) {
+                include(document, entry.document);
+            } else {
+                bases.add(entry.document);
+            }
+        }
+
+        for (JSONObject base : bases) {
+            merge(document, base);
+        }
+    }
+
+    /**
+     * Gets a parsed file from the cache, parsing it if it isn't cached or
+     * has changed since.
+     */
+    private Entry load(Path path, VDFOptions options, Set<Path> loading)
+            throws IOException, JSONException {
+        Entry entry = this.cache.get(path);
+        if (entry != null && entry.isCurrent() && entry.matches(options)) {
+            return entry;
+        }
+
+        // Read the time first, so a change while parsing is caught later.
+        List<FileVersion> versions = new ArrayList<FileVersion>();
+        versions.add(new FileVersion(path));
+
+        List<String> directives = new ArrayList<String>();
+        JSONObject document = VDFTreeBuilder.build(new VDFReader(
+                ByteBuffer.wrap(Files.readAllBytes(path))),
+                options, directives);
+        this.apply(document, directives, path, options, loading, versions);
+
+        entry = new Entry(document, versions, options);
+        this.cache.put(path, entry);
+        return entry;
+    }
+
+    /**
+     * Adds the top-level keys of an included file that a document lacks.
+     */
+    private static void include(JSONObject document, JSONObject included)
+            throws JSONException {
+        Iterator<?> keys = included.keys();
+        while (keys.hasNext()) {
+            String key = (String) keys.next();
+            if (!document.has(key)) {
+                document.put(key, copy(included.get(key)));
+            }
+        }
+    }
+
+    /**
+     * Merges a base file into a document, adding keys the document lacks at
+     * any depth.
+     */
+    private static void merge(JSONObject document, JSONObject base)
+            throws JSONException {
+        List<JSONObject> work = new ArrayList<JSONObject>();
+        work.add(document);
+        work.add(base);
+
+        while (!work.isEmpty()) {
+            JSONObject from = work.remove(work.size() - 1);
+            JSONObject to = work.remove(work.size() - 1);
+
+            Iterator<?> keys = from.keys();
+            while (keys.hasNext()) {
+                String key = (String) keys.next();
+                Object value = from.get(key);
+                Object existing = to.opt(key);
+
+                if (existing == null) {
+                    to.put(key, copy(value));
+                } else if (existing instanceof JSONObject
+                        && value instanceof JSONObject) {
+                    work.add((JSONObject) existing);
+                    work.add((JSONObject) value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies a value from a cached file, so documents never share nested
+     * KeyValue sets with the cache.
+     */
+    private static Object copy(Object value) throws JSONException {
+        if (value instanceof VDFMultiValue) {
+            return VDFTreeBuilder.copy(new JSONObject().put("", value))
+                    .get("");
+        }
+        if (!(value instanceof JSONObject)) {
+            return value;
+        }
+        return VDFTreeBuilder.copy((JSONObject) value);
+    }
+
+    /**
+     * The modification time of a file when it was read.
+     */
+    private static final class FileVersion {
+
+        final Path path;
+        final FileTime modified;
+
+        FileVersion(Path path) throws IOException {
+            this.path = path;
+            this.modified = Files.getLastModifiedTime(path);
+        }
+
+        /**
+         * @return Whether or not the file is unchanged.
+         */
+        boolean isCurrent() {
+            try {
+                return this.modified.equals(
+                        Files.getLastModifiedTime(this.path));
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * A parsed file with its directives applied, along with the versions of
+     * every file it was built from and the options it was parsed with.
+     */
+    private static final class Entry {
+
+        final JSONObject document;
+        final List<FileVersion> versions;
+        final List<String> symbols;
+        final boolean convertArrays;
+        final boolean typedValues;
+        final boolean preserveDuplicates;
+        final int maxDepth;
+
+        Entry(JSONObject document, List<FileVersion> versions,
+                VDFOptions options) {
+            this.document = document;
+            this.versions = versions;
+            this.symbols = options.getSymbolNames();
+            this.convertArrays = options.isConvertArrays();
+            this.typedValues = options.isTypedValues();
+            this.preserveDuplicates = options.isPreserveDuplicates();
+            this.maxDepth = options.getMaxDepth();
+        }
+
+        /**
+         * @return Whether or not the file was parsed with options that give
+         * the same result.
+         */
+        boolean matches(VDFOptions options) {
+            return this.convertArrays == options.isConvertArrays()
+                    && this.typedValues == options.isTypedValues()
+                    && this.preserveDuplicates
+                            == options.isPreserveDuplicates()
+                    && this.maxDepth == options.getMaxDepth()
+                    && this.symbols.equals(options.getSymbolNames());
+        }
+
+        /**
+         * @return Whether or not none of the files have changed.
+         */
+        boolean isCurrent() {
+            for (FileVersion version : this.versions) {
+                if (!version.isCurrent()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
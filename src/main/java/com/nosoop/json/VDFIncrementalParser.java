@@ -0,0 +1,176 @@
+package com.nosoop.json;
+
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 nosoop
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+import java.nio.ByteBuffer;
+import org.json.JSONException;
+
+/**
+ * Parses UTF-8 encoded VDF text that arrives in chunks, such as from a
+ * non-blocking channel, passing its contents to a VDFHandler as soon as they
+ * are complete. No thread is blocked waiting for input; each call to
+ * {@link #feed(ByteBuffer)} handles what it can and returns.
+ *
+ * Strings, escape sequences and comments may be split across chunks at any
+ * byte. Only the token cut off at the end of a chunk is kept between calls.
+ * For example, <pre>
+ * VDFIncrementalParser parser = new VDFIncrementalParser(handler);
+ * while (channel.read(buffer) &gt;= 0) {
+ *     buffer.flip();
+ *     parser.feed(buffer);
+ *     buffer.clear();
+ * }
+ * parser.endOfInput();</pre>
+ *
+ * Events follow the same rules as {@link VDF#parse(ByteBuffer, VDFHandler)},
+ * including balancing {@link VDFHandler#endObject()} calls if the input ends
+ * early.
+ *
+ * @author nosoop < nosoop at users.noreply.github.com >
+ */
+public class VDFIncrementalParser {
+
+    /**
+     * The lexer being fed, or null if input is not fed in chunks.
+     */
+    private final VDFByteLexer lexer;
+    /**
+     * The source of tokens.
+     */
+    private final VDFReader reader;
+    /**
+     * The handler to receive the contents.
+     */
+    private final VDFHandler handler;
+    /**
+     * The key of the value that is expected next.
+     */
+    private String key;
+    /**
+     * Whether or not the end of the document has been reached.
+     */
+    private boolean done;
+
+    /**
+     * Creates a parser for a document that is fed in chunks.
+     *
+     * @param handler The handler to receive the contents.
+     */
+    public VDFIncrementalParser(VDFHandler handler) {
+        this.lexer = new VDFByteLexer();
+        this.reader = new VDFReader(this.lexer).setReportComments(true);
+        this.handler = handler;
+    }
+
+    /**
+     * Creates a parser over a reader that has all of its input.
+     *
+     * @param reader A VDFReader instantiated with VDF data.
+     * @param handler The handler to receive the contents.
+     */
+    VDFIncrementalParser(VDFReader reader, VDFHandler handler) {
+        this.lexer = null;
+        this.reader = reader.setReportComments(true);
+        this.handler = handler;
+    }
+
+    /**
+     * Parses the next chunk of input, passing everything that is complete to
+     * the handler. The chunk is consumed entirely; its position is advanced
+     * to its limit, and the buffer may be reused once this returns. Input
+     * after the end of the document is ignored.
+     *
+     * @param chunk The next bytes of UTF-8 encoded VDF text.
+     * @throws JSONException Parse exception, or one thrown by the handler.
+     */
+    public void feed(ByteBuffer chunk) throws JSONException {
+        if (this.done) {
+            chunk.position(chunk.limit());
+            return;
+        }
+        this.lexer.feed(chunk);
+        this.run();
+    }
+
+    /**
+     * Signals that there is no more input, passing whatever was left
+     * incomplete to the handler as a partial document would be.
+     *
+     * @throws JSONException Parse exception, or one thrown by the handler.
+     */
+    public void endOfInput() throws JSONException {
+        if (!this.done) {
+            this.lexer.endOfInput();
+            this.run();
+        }
+    }
+
+    /**
+     * @return Whether or not the end of the document has been reached, after
+     * which no more events are sent.
+     */
+    public boolean isDone() {
+        return this.done;
+    }
+
+    /**
+     * Passes tokens to the handler until the input runs out.
+     *
+     * @throws JSONException Parse exception, or one thrown by the handler.
+     */
+    void run() throws JSONException {
+        for (;;) {
+            VDFReader.Token token = this.reader.nextToken();
+            if (token == null) {
+                // Wait for more input.
+                return;
+            }
+
+            switch (token) {
+                case KEY:
+                    this.key = this.reader.getText();
+                    break;
+                case VALUE:
+                    this.handler.keyValue(this.key, this.reader.getText());
+                    break;
+                case START_OBJECT:
+                    this.handler.startObject(this.key);
+                    break;
+                case END_OBJECT:
+                    this.handler.endObject();
+                    break;
+                case COMMENT:
+                    this.handler.comment(this.reader.getText());
+                    break;
+                case DIRECTIVE:
+                    throw this.reader.syntaxError("Unsupported #"
+                            + this.reader.getDirective());
+                default:
+                    this.done = true;
+                    return;
+            }
+        }
+    }
+}
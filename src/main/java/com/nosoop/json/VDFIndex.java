@@ -0,0 +1,637 @@
+package com.nosoop.json;
+
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 nosoop
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Locates the top-level and second-level entries of a VDF file, so that one
+ * entry can be parsed without reading the rest of the file.
+ *
+ * Each entry is found by its path, its key or its parent's key and its key
+ * separated by a slash, such as <code>apps/440</code>. A slash or backslash
+ * in a key is escaped with a backslash; {@link #path(String...)} builds a
+ * path from keys. The index is saved next to the file as
+ * <code><i>name</i>.idx</code> and used again for as long as the size and
+ * modification time of the file stay the same; once either changes, the
+ * index is rebuilt on its next use. For example, <pre>
+ * VDFIndex index = VDFIndex.open(path);
+ * JSONObject app = (JSONObject) index.get("apps/440", options);</pre>
+ *
+ * Entries are indexed along with their conditionals, which are evaluated
+ * against the symbols of the options each entry is looked up with. Files
+ * with <code>#include</code> or <code>#base</code> directives are indexed
+ * without them. If the index can't be saved, it is only kept in memory.
+ *
+ * @author nosoop < nosoop at users.noreply.github.com >
+ */
+public class VDFIndex {
+
+    /**
+     * Identifies a saved index, "VDFI".
+     */
+    private static final int MAGIC = 0x56444649;
+    /**
+     * Version of the saved index format.
+     */
+    private static final int VERSION = 2;
+    /**
+     * Suffix added to the file name of the indexed file.
+     */
+    private static final String SUFFIX = ".idx";
+
+    /**
+     * The indexed file.
+     */
+    private final Path path;
+    /**
+     * Where the index is saved.
+     */
+    private final Path indexPath;
+    /**
+     * The entries of the file as last indexed.
+     */
+    private volatile Table table;
+
+    private VDFIndex(Path path) {
+        this.path = path;
+        this.indexPath = path.resolveSibling(path.getFileName() + SUFFIX);
+    }
+
+    /**
+     * Opens the index of a file containing UTF-8 encoded VDF text, building
+     * and saving it if there's no index for the file as it is.
+     *
+     * @param path The indexed file.
+     * @return The index of the file.
+     * @throws IOException If the file could not be read.
+     * @throws JSONException Parse exception?
+     */
+    public static VDFIndex open(Path path) throws IOException, JSONException {
+        VDFIndex index = new VDFIndex(path);
+        index.refresh();
+        return index;
+    }
+
+    /**
+     * Builds the path of an entry from its keys, escaping slashes and
+     * backslashes in them.
+     *
+     * @param keys The key of a top-level entry, optionally followed by the
+     * key of an entry in it.
+     * @return The path of the entry.
+     */
+    public static String path(String... keys) {
+        StringBuilder sb = new StringBuilder();
+        for (String key : keys) {
+            if (sb.length() > 0) {
+                sb.append('/');
+            }
+            for (int i = 0; i < key.length(); i++) {
+                char c = key.charAt(i);
+                if (c == '/' || c == '\\') {
+                    sb.append('\\');
+                }
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Gets the indexed file.
+     *
+     * @return The path of the file.
+     */
+    public Path getPath() {
+        return this.path;
+    }
+
+    /**
+     * Gets the paths of the entries in the file, including those that are
+     * only there for some conditional symbols.
+     *
+     * @return The paths of the entries, in the order they first appear in.
+     * @throws IOException If the file could not be read.
+     * @throws JSONException Parse exception?
+     */
+    public Set<String> paths() throws IOException, JSONException {
+        return Collections.unmodifiableSet(this.refresh().entries.keySet());
+    }
+
+    /**
+     * Checks whether the file has an entry when no conditional symbols are
+     * defined.
+     *
+     * @param entry The path of the entry, such as <code>apps/440</code>.
+     * @return Whether or not the entry is in the file.
+     * @throws IOException If the file could not be read.
+     * @throws JSONException Parse exception?
+     */
+    public boolean has(String entry) throws IOException, JSONException {
+        return this.find(entry, new VDFOptions()) != null;
+    }
+
+    /**
+     * Parses one entry of the file without array conversion. See
+     * {@link #get(String, VDFOptions)}.
+     *
+     * @param entry The path of the entry, such as <code>apps/440</code>.
+     * @return The value of the entry, or null if there is no such entry.
+     * @throws IOException If the file could not be read.
+     * @throws JSONException Parse exception?
+     */
+    public Object get(String entry) throws IOException, JSONException {
+        return this.get(entry, new VDFOptions());
+    }
+
+    /**
+     * Parses one entry of the file, mapping only the part of the file it is
+     * in. The result is the same as parsing the whole file and looking up
+     * the entry, except that an entry is parsed by itself: a KeyValue set
+     * is only converted to a JSONArray if it is shaped like one. Of entries
+     * with the same path, the last one whose conditionals hold is used.
+     *
+     * @param entry The path of the entry, such as <code>apps/440</code>.
+     * @param options The conversion options.
+     * @return The value of the entry, a String, JSONObject or JSONArray, or
+     * null if there is no such entry.
+     * @throws IOException If the file could not be read, or the entry is
+     * too large to map.
+     * @throws JSONException Parse exception?
+     */
+    public Object get(String entry, VDFOptions options)
+            throws IOException, JSONException {
+        Entry found = this.find(entry, options);
+        if (found == null) {
+            return null;
+        }
+        if (found.length > Integer.MAX_VALUE) {
+            throw new IOException("Entry too large to map: " + found.length
+                    + " bytes");
+        }
+
+        JSONObject parsed;
+        try (FileChannel channel = FileChannel.open(this.path,
+                StandardOpenOption.READ)) {
+            parsed = VDF.toJSONObject(channel.map(
+                    FileChannel.MapMode.READ_ONLY, found.offset,
+                    found.length), options);
+        }
+        int slash = separator(entry);
+        return parsed.opt(unescape(slash < 0 ? entry
+                : entry.substring(slash + 1)));
+    }
+
+    /**
+     * Finds the entry with a path that is in the file for the symbols of a
+     * set of options.
+     *
+     * @return The entry, or null if there is none.
+     */
+    private Entry find(String entry, VDFOptions options)
+            throws IOException, JSONException {
+        Table current = this.refresh();
+        List<Entry> candidates = current.entries.get(entry);
+        if (candidates == null) {
+            return null;
+        }
+
+        VDFReader symbols = new VDFReader("")
+                .setSymbols(options.getSymbols());
+        Entry parent = null;
+        int slash = separator(entry);
+        if (slash >= 0) {
+            parent = last(current.entries.get(entry.substring(0, slash)),
+                    null, symbols);
+            if (parent == null) {
+                return null;
+            }
+        }
+        return last(candidates, parent, symbols);
+    }
+
+    /**
+     * Picks the last of the entries with a path in a parent whose
+     * conditionals hold.
+     */
+    private static Entry last(List<Entry> candidates, Entry parent,
+            VDFReader symbols) throws JSONException {
+        if (candidates == null) {
+            return null;
+        }
+        for (int i = candidates.size() - 1; i >= 0; i--) {
+            Entry e = candidates.get(i);
+            if (e.parent == parent && (e.conditions == null
+                    || symbols.holds(e.conditions))) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the slash between the parent's key and the key in a path.
+     *
+     * @return The index of the slash, or -1 for a top-level path.
+     */
+    private static int separator(String entry) {
+        for (int i = 0; i < entry.length(); i++) {
+            char c = entry.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '/') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Removes the escapes from a key in a path.
+     */
+    private static String unescape(String key) {
+        if (key.indexOf('\\') < 0) {
+            return key;
+        }
+        StringBuilder sb = new StringBuilder(key.length());
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c == '\\' && i + 1 < key.length()) {
+                c = key.charAt(++i);
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Gets the entries of the file, indexing it again if it changed.
+     */
+    private Table refresh() throws IOException, JSONException {
+        long size = Files.size(this.path);
+        long modified = Files.getLastModifiedTime(this.path).toMillis();
+        Table current = this.table;
+        if (current != null && current.matches(size, modified)) {
+            return current;
+        }
+
+        synchronized (this) {
+            current = this.table;
+            if (current != null && current.matches(size, modified)) {
+                return current;
+            }
+            current = this.load();
+            if (current == null || !current.matches(size, modified)) {
+                current = this.build(size, modified);
+                this.save(current);
+            }
+            this.table = current;
+            return current;
+        }
+    }
+
+    /**
+     * Indexes the file.
+     */
+    private Table build(long size, long modified)
+            throws IOException, JSONException {
+        Map<String, List<Entry>> entries =
+                new LinkedHashMap<String, List<Entry>>();
+        VDFReader reader = new VDFReader(this.path).setRecordConditions();
+        // Where the next entry at each level starts; an entry takes in the
+        // whitespace and comments before it.
+        long[] from = {0, 0};
+        String key = null;
+        String conditions = null;
+        String parentPath = null;
+        Entry parent = null;
+
+        for (;;) {
+            VDFReader.Token token = reader.nextToken();
+            int depth = reader.getDepth();
+            long position = reader.getPosition();
+
+            switch (token) {
+                case KEY:
+                    if (depth < 2) {
+                        key = path(reader.getText());
+                        conditions = reader.getConditions();
+                    }
+                    break;
+                case VALUE:
+                    if (depth == 0) {
+                        put(entries, key, new Entry(from[0], position,
+                                conditions, null));
+                        from[0] = position;
+                    } else if (depth == 1) {
+                        put(entries, parentPath + "/" + key, new Entry(
+                                from[1], position, conditions, parent));
+                        from[1] = position;
+                    }
+                    break;
+                case START_OBJECT:
+                    if (depth == 1) {
+                        // The length and any conditionals after the set are
+                        // filled in, and the set added, once it ends. Its
+                        // path goes in first, so that it comes before the
+                        // paths of its entries.
+                        parentPath = key;
+                        parent = new Entry(from[0], from[0], conditions,
+                                null);
+                        if (!entries.containsKey(key)) {
+                            entries.put(key, new ArrayList<Entry>());
+                        }
+                        from[1] = position;
+                    } else {
+                        reader.skipChildren();
+                        position = reader.getPosition();
+                        put(entries, parentPath + "/" + key, new Entry(
+                                from[1], position, and(conditions,
+                                reader.getConditions()), parent));
+                        from[1] = position;
+                    }
+                    break;
+                case END_OBJECT:
+                    if (depth == 0) {
+                        parent.length = position - parent.offset;
+                        parent.conditions = and(parent.conditions,
+                                reader.getConditions());
+                        put(entries, parentPath, parent);
+                        from[0] = position;
+                    }
+                    break;
+                case DIRECTIVE:
+                    // Keep the directive out of the next entry.
+                    from[0] = position;
+                    break;
+                case EOF:
+                    return new Table(size, modified, entries);
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Joins the conditionals before and after a KeyValue set.
+     *
+     * @return Both conditionals, either of them, or null if there are none.
+     */
+    private static String and(String before, String after) {
+        if (before == null || after == null) {
+            return before == null ? after : before;
+        }
+        return before + " && " + after;
+    }
+
+    /**
+     * Adds an entry. An entry without conditionals replaces the earlier ones
+     * with the same path, and their contents, the way a later duplicate key
+     * replaces an earlier one.
+     */
+    private static void put(Map<String, List<Entry>> entries, String path,
+            Entry entry) {
+        List<Entry> candidates = entries.get(path);
+        if (candidates == null) {
+            candidates = new ArrayList<Entry>();
+            entries.put(path, candidates);
+        }
+
+        List<Entry> replaced = new ArrayList<Entry>();
+        if (entry.conditions == null) {
+            for (Iterator<Entry> it = candidates.iterator(); it.hasNext();) {
+                Entry e = it.next();
+                if (e.parent == entry.parent) {
+                    replaced.add(e);
+                    it.remove();
+                }
+            }
+        }
+        candidates.add(entry);
+        if (entry.parent == null && !replaced.isEmpty()) {
+            removeChildren(entries, replaced);
+        }
+    }
+
+    /**
+     * Removes the entries in top-level KeyValue sets that were replaced by
+     * another one with the same key.
+     */
+    private static void removeChildren(Map<String, List<Entry>> entries,
+            List<Entry> parents) {
+        Iterator<List<Entry>> paths = entries.values().iterator();
+        while (paths.hasNext()) {
+            List<Entry> candidates = paths.next();
+            for (Iterator<Entry> it = candidates.iterator(); it.hasNext();) {
+                if (parents.contains(it.next().parent)) {
+                    it.remove();
+                }
+            }
+            if (candidates.isEmpty()) {
+                paths.remove();
+            }
+        }
+    }
+
+    /**
+     * Reads the saved index.
+     *
+     * @return The saved index, or null if there is none that can be read.
+     */
+    private Table load() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(this.indexPath)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            long size = in.readLong();
+            long modified = in.readLong();
+            int count = in.readInt();
+            Map<String, List<Entry>> entries =
+                    new LinkedHashMap<String, List<Entry>>();
+            List<Entry> read = new ArrayList<Entry>(count);
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long offset = in.readLong();
+                long length = in.readLong();
+                String conditions = in.readBoolean() ? in.readUTF() : null;
+                int parent = in.readInt();
+                if (parent >= i) {
+                    return null;
+                }
+                Entry entry = new Entry(offset, offset + length, conditions,
+                        parent < 0 ? null : read.get(parent));
+                read.add(entry);
+
+                List<Entry> candidates = entries.get(path);
+                if (candidates == null) {
+                    candidates = new ArrayList<Entry>();
+                    entries.put(path, candidates);
+                }
+                candidates.add(entry);
+            }
+            return new Table(size, modified, entries);
+        } catch (IOException e) {
+            // A missing, truncated or otherwise unreadable index is rebuilt.
+            return null;
+        }
+    }
+
+    /**
+     * Saves the index next to the file. The index is written to a temporary
+     * file first and moved into place, so that a reader never sees a partly
+     * written index.
+     */
+    private void save(Table table) {
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(this.indexPath.getParent(),
+                    this.indexPath.getFileName().toString(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                // Parents always come before their entries, so each entry
+                // refers to its parent by the number it was written as.
+                Map<Entry, Integer> written =
+                        new IdentityHashMap<Entry, Integer>();
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(table.size);
+                out.writeLong(table.modified);
+                int count = 0;
+                for (List<Entry> candidates : table.entries.values()) {
+                    count += candidates.size();
+                }
+                out.writeInt(count);
+                for (Map.Entry<String, List<Entry>> e
+                        : table.entries.entrySet()) {
+                    for (Entry entry : e.getValue()) {
+                        out.writeUTF(e.getKey());
+                        out.writeLong(entry.offset);
+                        out.writeLong(entry.length);
+                        out.writeBoolean(entry.conditions != null);
+                        if (entry.conditions != null) {
+                            out.writeUTF(entry.conditions);
+                        }
+                        out.writeInt(entry.parent == null ? -1
+                                : written.get(entry.parent));
+                        written.put(entry, written.size());
+                    }
+                }
+            }
+            try {
+                Files.move(temp, this.indexPath,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, this.indexPath,
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            temp = null;
+        } catch (IOException e) {
+            // The index is still used from memory.
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * An entry of the file: where it is, and what decides whether it is in
+     * the file.
+     */
+    private static final class Entry {
+
+        final long offset;
+        /**
+         * The length of the entry, set once the end of a KeyValue set is
+         * found.
+         */
+        long length;
+        /**
+         * The conditionals of the entry, or null if it has none. Those after
+         * a KeyValue set are added once its end is found.
+         */
+        String conditions;
+        /**
+         * The top-level KeyValue set the entry is in, or null for a
+         * top-level entry.
+         */
+        final Entry parent;
+
+        Entry(long offset, long end, String conditions, Entry parent) {
+            this.offset = offset;
+            this.length = end - offset;
+            this.conditions = conditions;
+            this.parent = parent;
+        }
+    }
+
+    /**
+     * The entries of the file as it was when indexed.
+     */
+    private static final class Table {
+
+        final long size;
+        final long modified;
+        /**
+         * The entries with each path, in the order they appear.
+         */
+        final Map<String, List<Entry>> entries;
+
+        Table(long size, long modified, Map<String, List<Entry>> entries) {
+            this.size = size;
+            this.modified = modified;
+            this.entries = entries;
+        }
+
+        boolean matches(long size, long modified) {
+            return this.size == size && this.modified == modified;
+        }
+    }
+}
@@ -0,0 +1,472 @@
+package com.nosoop.json;
+
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 nosoop
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+import org.json.JSONException;
+
+/**
+ * Splits VDF text into tokens for the parser.
+ *
+ * Implementations only locate String tokens while scanning, so that skipping
+ * over data costs no allocations; the contents are unescaped when requested.
+ *
+ * @author nosoop < nosoop at users.noreply.github.com >
+ */
+abstract class VDFLexer {
+
+    /**
+     * Token type signalling that the input has been exhausted.
+     */
+    static final int EOF = 0;
+    /**
+     * Token type for a String (key or value), quoted or not.
+     */
+    static final int STRING = 1;
+    /**
+     * Token type for an opening brace.
+     */
+    static final int L_BRACE = 2;
+    /**
+     * Token type for a closing brace.
+     */
+    static final int R_BRACE = 3;
+    /**
+     * Token type for a C++ styled comment, only returned if comments are
+     * reported.
+     */
+    static final int COMMENT = 4;
+    /**
+     * Token type signalling that the next token is cut off by the end of the
+     * input received so far, only returned by lexers that are fed input.
+     */
+    static final int INCOMPLETE = 5;
+    /**
+     * Token type for a preprocessor directive such as <code>#base</code>.
+     * The directive's name, without the hash, is its String.
+     */
+    static final int DIRECTIVE = 6;
+    /**
+     * Token type for a conditional such as <code>[$WIN32]</code>. Its
+     * expression, without the brackets, is held in {@link #condition}.
+     */
+    static final int CONDITIONAL = 7;
+    /**
+     * Value returned by {@link #peekChar()} at the end of the input.
+     */
+    static final int END = -1;
+    /**
+     * Value returned by {@link #peekChar()} if more input must be fed to
+     * tell what comes next.
+     */
+    static final int MORE = -2;
+    /**
+     * Powers of ten that are exactly representable as doubles.
+     */
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    /**
+     * Characters that end an unquoted String, indexed by character code.
+     * Anything outside of ASCII is part of the String.
+     */
+    private static final boolean[] DELIMITERS = new boolean[128];
+
+    static {
+        // Null characters are disregarded along with whitespace.
+        for (int c = 0; c <= ' '; c++) {
+            DELIMITERS[c] = true;
+        }
+        DELIMITERS[VDF.QUOTE] = true;
+        DELIMITERS[VDF.L_BRACE] = true;
+        DELIMITERS[VDF.R_BRACE] = true;
+        DELIMITERS[VDF.L_BRACKET] = true;
+        // Only ends the String if it starts a comment.
+        DELIMITERS[VDF.SLASH] = true;
+    }
+    /**
+     * Whether or not comments are returned as tokens instead of skipped.
+     */
+    boolean reportComments;
+    /**
+     * The expression of the current conditional. It is reused for each
+     * conditional, so that lexing them costs no allocations.
+     */
+    final StringBuilder condition = new StringBuilder();
+
+    /**
+     * Scans for the next token, skipping whitespace and comments.
+     *
+     * @return The type of the token found.
+     * @throws JSONException If an unexpected character is encountered.
+     */
+    abstract int nextToken() throws JSONException;
+
+    /**
+     * Gets the current String token with escape sequences resolved, the text
+     * of the current comment following the slashes, or the name of the
+     * current directive.
+     *
+     * @return The contents of the String or comment token last returned by
+     * {@link #nextToken()}.
+     * @throws JSONException If the String contains an unknown escape
+     * sequence.
+     */
+    abstract String getString() throws JSONException;
+
+    /**
+     * @return The length of the current String token as it appears in the
+     * input.
+     */
+    abstract int tokenLength();
+
+    /**
+     * Gets a character of the current String token as it appears in the
+     * input, without resolving escape sequences.
+     *
+     * @param index Index of the character in the token.
+     * @return The character, or a byte of UTF-8 encoded text.
+     */
+    abstract int tokenChar(int index);
+
+    /**
+     * Gets the current String token as the number or Boolean it looks like.
+     * Integers become Integers, or Longs if they don't fit; decimals become
+     * Doubles; <code>true</code> and <code>false</code> become Booleans.
+     * Integers too large for a long, and integers whose text a number can't
+     * reproduce, such as <code>007</code>, <code>+1</code> or
+     * <code>-0</code>, are left alone.
+     *
+     * The token is classified from its characters in place, so no String is
+     * created for values that turn out to be numbers or Booleans.
+     *
+     * @return The value of the String token last returned by
+     * {@link #nextToken()}, or null if it should stay a String.
+     */
+    Object getTypedValue() {
+        final int n = this.tokenLength();
+        if (n == 0 || n > 32) {
+            return null;
+        }
+
+        int i = 0;
+        int c = this.tokenChar(0);
+        if (c == 't' || c == 'T') {
+            return this.matches("true") ? Boolean.TRUE : null;
+        } else if (c == 'f' || c == 'F') {
+            return this.matches("false") ? Boolean.FALSE : null;
+        }
+
+        boolean negative = c == '-';
+        if (negative) {
+            i++;
+        }
+
+        // Integer part. Digits that don't fit the mantissa are only counted.
+        // The integer is also accumulated negatively, as Long.parseLong does,
+        // so that every long, Long.MIN_VALUE included, can be checked for
+        // overflow.
+        int start = i;
+        long mantissa = 0;
+        int significant = 0;
+        final long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long integer = 0;
+        boolean overflow = false;
+        while (i < n && (c = this.tokenChar(i)) >= '0' && c <= '9') {
+            int digit = c - '0';
+            if (integer < limit / 10 || integer * 10 < limit + digit) {
+                overflow = true;
+            } else {
+                integer = integer * 10 - digit;
+            }
+            if (significant < 18) {
+                mantissa = mantissa * 10 + (c - '0');
+            }
+            if (mantissa != 0) {
+                significant++;
+            }
+            i++;
+        }
+        if (i == start || (i - start > 1 && this.tokenChar(start) == '0')) {
+            // No digits, or leading zeros.
+            return null;
+        }
+
+        if (i == n) {
+            if ((negative && integer == 0) || overflow) {
+                return null;
+            }
+            long value = negative ? integer : -integer;
+            if (value == (int) value) {
+                return Integer.valueOf((int) value);
+            }
+            return Long.valueOf(value);
+        }
+
+        // Fraction and exponent.
+        int scale = 0;
+        boolean decimal = false;
+        if (c == '.') {
+            decimal = true;
+            start = ++i;
+            while (i < n && (c = this.tokenChar(i)) >= '0' && c <= '9') {
+                if (significant < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                }
+                if (mantissa != 0) {
+                    significant++;
+                }
+                i++;
+            }
+            if (i == start) {
+                return null;
+            }
+            scale = start - i;
+        }
+
+        if (i < n && (c == 'e' || c == 'E')) {
+            decimal = true;
+            boolean negativeExponent = false;
+            if (++i < n && ((c = this.tokenChar(i)) == '-' || c == '+')) {
+                negativeExponent = c == '-';
+                i++;
+            }
+            start = i;
+            int exponent = 0;
+            while (i < n && (c = this.tokenChar(i)) >= '0' && c <= '9'
+                    && exponent < 1000) {
+                exponent = exponent * 10 + (c - '0');
+                i++;
+            }
+            if (i == start) {
+                return null;
+            }
+            scale += negativeExponent ? -exponent : exponent;
+        }
+        if (i != n || !decimal) {
+            return null;
+        }
+
+        if (significant <= 15 && scale >= -22 && scale <= 22) {
+            // Both operands are exact, so the result is correctly rounded.
+            double value = scale < 0 ? mantissa / POWERS_OF_TEN[-scale]
+                    : mantissa * POWERS_OF_TEN[scale];
+            return Double.valueOf(negative ? -value : value);
+        }
+
+        // Rare enough to leave to the platform.
+        StringBuilder text = new StringBuilder(n);
+        for (i = 0; i < n; i++) {
+            text.append((char) this.tokenChar(i));
+        }
+        double value = Double.parseDouble(text.toString());
+        return Double.isInfinite(value) ? null : Double.valueOf(value);
+    }
+
+    /**
+     * Gets the current String token as a value that is only decoded once it
+     * is read from a JSONObject, if the input is kept in memory for as long
+     * as the value exists.
+     *
+     * @return A JSONLazyValue standing for the String token last returned by
+     * {@link #nextToken()}, or the String itself if it has to be decoded
+     * now.
+     * @throws JSONException If the String contains an unknown escape
+     * sequence.
+     */
+    Object getLazyString() throws JSONException {
+        return this.getString();
+    }
+
+    /**
+     * Checks whether the current String token is a word, ignoring case.
+     */
+    private boolean matches(String word) {
+        int n = word.length();
+        if (this.tokenLength() != n) {
+            return false;
+        }
+        for (int i = 0; i < n; i++) {
+            if ((this.tokenChar(i) | 0x20) != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Keeps the current String token, so that it can still be decoded with
+     * {@link #getSavedString()} after more tokens are lexed. The input from
+     * the start of the token on is retained until {@link #releaseString()}
+     * is called.
+     */
+    abstract void saveString();
+
+    /**
+     * Gets the String token kept by {@link #saveString()} with escape
+     * sequences resolved.
+     *
+     * @return The contents of the saved String token.
+     * @throws JSONException If the String contains an unknown escape
+     * sequence.
+     */
+    abstract String getSavedString() throws JSONException;
+
+    /**
+     * Compares the String token kept by {@link #saveString()} to a String,
+     * without decoding the token unless it has to be.
+     *
+     * @param s The String to compare to.
+     * @return Whether or not the saved String token is equal to it.
+     * @throws JSONException If the token contains an unknown escape
+     * sequence.
+     */
+    abstract boolean savedEquals(String s) throws JSONException;
+
+    /**
+     * Lets go of the String token kept by {@link #saveString()}.
+     */
+    abstract void releaseString();
+
+    /**
+     * Gets an object standing for the String token kept by
+     * {@link #saveString()}, equal to the one this lexer returns for any
+     * token with the same contents. Lexers holding all of their input
+     * compare tokens in place where they can, rather than decoding them.
+     *
+     * @return The decoded String, or another object to compare saved tokens
+     * with.
+     * @throws JSONException If the token contains an unknown escape
+     * sequence.
+     */
+    Object getSavedKey() throws JSONException {
+        return this.getSavedString();
+    }
+
+    /**
+     * Reads the rest of input that is read in windows into memory, so that
+     * the lexer can be copied. Input fed in chunks is left as it is.
+     *
+     * @throws JSONException If the input could not be read.
+     */
+    void readFully() throws JSONException {
+    }
+
+    /**
+     * Skips whitespace and comments that aren't reported, then gets the
+     * character at the cursor without consuming it. Unlike
+     * {@link #nextToken()}, this leaves the current String token intact; it
+     * stays readable as long as a String token before it is saved.
+     *
+     * @return The next character, {@link #END} at the end of the input or
+     * {@link #MORE} if more input must be fed first.
+     * @throws JSONException
+     */
+    abstract int peekChar() throws JSONException;
+
+    /**
+     * Creates a lexer over the same input, starting from the cursor, so the
+     * rest of the input can be read twice.
+     *
+     * @return The new lexer, or null if the input can only be read once.
+     */
+    VDFLexer copy() {
+        return null;
+    }
+
+    /**
+     * Gets the position of the cursor, just past the last token returned.
+     *
+     * @return The offset of the cursor in the input.
+     */
+    abstract long position();
+
+    /**
+     * Make a JSONException to signal a syntax error at the cursor.
+     *
+     * @param message The error message.
+     * @return A JSONException object, suitable for throwing.
+     */
+    abstract JSONException syntaxError(String message);
+
+    /**
+     * Make a JSONException to signal an unexpected character at the cursor.
+     *
+     * @param c The unexpected character.
+     * @return A JSONException object, suitable for throwing.
+     */
+    JSONException unexpectedCharacter(char c) {
+        String fmtError = "Unexpected character \'%s\'";
+        return this.syntaxError(String.format(fmtError, c));
+    }
+
+    /**
+     * Checks whether a character may be part of a directive's name.
+     *
+     * @param c The character to check.
+     * @return Whether or not the character is an ASCII letter.
+     */
+    static boolean isDirectiveChar(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    /**
+     * Checks whether a character may be part of an unquoted String, such as
+     * the key and value in <code>xpos 10</code>. Unquoted Strings end at
+     * whitespace, quotes, braces, comments and the start of a conditional;
+     * escape sequences are not resolved in them. Slashes have to be checked
+     * separately, since only two of them start a comment.
+     *
+     * @param c The character to check, or a byte of UTF-8 encoded text.
+     * @return Whether or not the character continues an unquoted String,
+     * unless it is a slash.
+     */
+    static boolean isBareChar(int c) {
+        return c < 0 || c >= DELIMITERS.length || !DELIMITERS[c];
+    }
+
+    /**
+     * Resolves the character following a backslash in a String.
+     * -- Allowed Escape sequences are \n, \t, \\, and \".
+     *
+     * @param u The escaped character.
+     * @return The character the escape sequence stands for.
+     * @throws JSONException If the escape sequence is not allowed.
+     */
+    char unescape(char u) throws JSONException {
+        switch (u) {
+            case 'n':
+                return '\n';
+            case 't':
+                return '\t';
+            case '\\':
+            case '\"':
+                return u;
+            default:
+                String fmtError = "Unexpected escape sequence \"\\%s\"";
+                throw this.syntaxError(String.format(fmtError, u));
+        }
+    }
+}
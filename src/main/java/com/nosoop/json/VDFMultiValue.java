@@ -0,0 +1,87 @@
+package com.nosoop.json;
+
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 nosoop
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+import org.json.JSONArray;
+
+/**
+ * Holds every value of a key that appears more than once in a KeyValue set,
+ * in the order they appear. Only made when duplicate keys are preserved, and
+ * only for keys that are actually repeated; a key that appears once keeps its
+ * value as is.
+ *
+ * It is a JSONArray, so it is written as one in JSON text. Telling it apart
+ * from a converted VDF-formatted array, for example, <pre>
+ * Object item = object.get("item");
+ * if (item instanceof VDFMultiValue) {
+ *     // "item" appeared more than once.
+ * }</pre>
+ * When written as VDF text, each value is written with the key again.
+ *
+ * @author nosoop < nosoop at users.noreply.github.com >
+ */
+public class VDFMultiValue extends JSONArray {
+
+    /**
+     * Creates a multi-value for a key seen a second time.
+     *
+     * @param first The value the key had first.
+     * @param second The value the key had the second time.
+     */
+    VDFMultiValue(Object first, Object second) {
+        this.put(first);
+        this.put(second);
+    }
+
+    private VDFMultiValue() {
+    }
+
+    /**
+     * Joins the values of a key from two parts of the same KeyValue set.
+     *
+     * @param previous The value or values from the earlier part.
+     * @param value The value or values from the later part.
+     * @return A VDFMultiValue with all of the values in order.
+     */
+    static VDFMultiValue join(Object previous, Object value) {
+        VDFMultiValue joined;
+        if (previous instanceof VDFMultiValue) {
+            joined = (VDFMultiValue) previous;
+        } else {
+            joined = new VDFMultiValue();
+            joined.put(previous);
+        }
+
+        if (value instanceof VDFMultiValue) {
+            VDFMultiValue values = (VDFMultiValue) value;
+            for (int i = 0; i < values.length(); i++) {
+                joined.put(values.opt(i));
+            }
+        } else {
+            joined.put(value);
+        }
+        return joined;
+    }
+}
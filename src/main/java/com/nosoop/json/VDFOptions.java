@@ -0,0 +1,320 @@
+package com.nosoop.json;
+
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 nosoop
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Settings for converting VDF text into the JSON format. Setters return the
+ * options themselves, permitting a cascade style. For example, <pre>
+ * VDF.toJSONObject(text, new VDFOptions()
+ *         .setConvertArrays(true)
+ *         .setMaxDepth(64));</pre>
+ *
+ * @author nosoop < nosoop at users.noreply.github.com >
+ */
+public class VDFOptions {
+
+    /**
+     * Whether or not to convert VDF-formatted arrays into JSONArrays.
+     */
+    private boolean convertArrays;
+    /**
+     * The maximum number of nested KeyValue sets.
+     */
+    private int maxDepth = Integer.MAX_VALUE;
+    /**
+     * The pool to parse large documents on, or null to parse on the calling
+     * thread.
+     */
+    private ForkJoinPool pool;
+    /**
+     * Whether or not to infer the types of values.
+     */
+    private boolean typedValues;
+    /**
+     * Whether or not to leave Strings undecoded until they are read.
+     */
+    private boolean lazyValues;
+    /**
+     * Whether or not to keep every value of a repeated key.
+     */
+    private boolean preserveDuplicates;
+    /**
+     * The symbols that hold in conditionals.
+     */
+    private Set<String> symbols = Collections.emptySet();
+    /**
+     * The cache resolving <code>#include</code> and <code>#base</code>
+     * directives, or null if they are rejected.
+     */
+    private VDFIncludeCache includes;
+    /**
+     * The cache of parsed files, or null to always parse them.
+     */
+    private VDFCache cache;
+
+    /**
+     * Creates options with the defaults: arrays are not converted, values
+     * are Strings, nesting is unlimited, parsing happens on the calling
+     * thread, no conditional symbols are defined, directives are rejected
+     * and files are not cached.
+     */
+    public VDFOptions() {
+    }
+
+    /**
+     * @return Whether or not VDF-formatted arrays are converted into
+     * JSONArrays.
+     */
+    public boolean isConvertArrays() {
+        return this.convertArrays;
+    }
+
+    /**
+     * Sets whether a set of KeyValues <code>"0" ... "n"</code> is converted
+     * into a JSONArray.
+     *
+     * @param convertArrays Whether or not to convert VDF-formatted arrays into
+     * JSONArrays.
+     * @return this.
+     */
+    public VDFOptions setConvertArrays(boolean convertArrays) {
+        this.convertArrays = convertArrays;
+        return this;
+    }
+
+    /**
+     * @return Whether or not numbers and Booleans are converted from their
+     * text.
+     */
+    public boolean isTypedValues() {
+        return this.typedValues;
+    }
+
+    /**
+     * Sets whether values that look like numbers or Booleans are converted
+     * into Integers, Longs, Doubles and Booleans rather than left as
+     * Strings. Integers whose text a number can't reproduce, such as
+     * <code>007</code>, stay Strings.
+     *
+     * @param typedValues Whether or not to infer the types of values.
+     * @return this.
+     * @see VDFReader#getValue()
+     */
+    public VDFOptions setTypedValues(boolean typedValues) {
+        this.typedValues = typedValues;
+        return this;
+    }
+
+    /**
+     * @return Whether or not String values are only decoded once they are
+     * read.
+     */
+    public boolean isLazyValues() {
+        return this.lazyValues;
+    }
+
+    /**
+     * Sets whether String values are left in the input until they are read
+     * from the resulting JSONObject, which saves decoding values that are
+     * never looked at. Only input that is held in memory for the lifetime
+     * of the result is used this way: Strings, ByteBuffers and memory-mapped
+     * files. They stay referenced until every value in them is read, and
+     * must not change in the meantime. Values containing escape sequences,
+     * and documents parsed with an include cache, are decoded right away.
+     *
+     * A lazy value decodes itself the first time it is read and keeps the
+     * String, letting go of the input. The JSONObject holding it is left
+     * unchanged, so a result with lazy values can be read from several
+     * threads at once like any other.
+     *
+     * @param lazyValues Whether or not to decode String values when read.
+     * @return this.
+     * @see org.json.JSONLazyValue
+     */
+    public VDFOptions setLazyValues(boolean lazyValues) {
+        this.lazyValues = lazyValues;
+        return this;
+    }
+
+    /**
+     * @return The maximum number of nested KeyValue sets.
+     */
+    public int getMaxDepth() {
+        return this.maxDepth;
+    }
+
+    /**
+     * Sets how deeply KeyValue sets may be nested before parsing fails.
+     * Parsing does not recurse, so this guards against hostile input rather
+     * than the call stack.
+     *
+     * @param maxDepth The maximum number of nested KeyValue sets.
+     * @return this.
+     */
+    public VDFOptions setMaxDepth(int maxDepth) {
+        if (maxDepth < 0) {
+            throw new IllegalArgumentException("Negative depth: " + maxDepth);
+        }
+        this.maxDepth = maxDepth;
+        return this;
+    }
+
+    /**
+     * @return The pool large documents are parsed on, or null if parsing
+     * happens on the calling thread.
+     */
+    public ForkJoinPool getPool() {
+        return this.pool;
+    }
+
+    /**
+     * Sets a pool to parse large documents on in parallel. Documents held in
+     * memory (Strings, ByteBuffers and mapped files) are split between the
+     * sibling KeyValue sets of their largest set, which are parsed as
+     * separate tasks and merged in order. The result is the same as parsing
+     * on the calling thread, including any syntax error.
+     *
+     * @param pool The pool to parse on, or null to parse on the calling
+     * thread.
+     * @return this.
+     */
+    public VDFOptions setPool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    /**
+     * @return Whether or not every value of a repeated key is kept.
+     */
+    public boolean isPreserveDuplicates() {
+        return this.preserveDuplicates;
+    }
+
+    /**
+     * Sets whether or not to keep every value of a key that appears more
+     * than once in a KeyValue set, such as several "item" sets. Normally a
+     * repeated key replaces the earlier value. When kept, the values of a
+     * repeated key are collected in a {@link VDFMultiValue} in the order
+     * they appear; keys that aren't repeated are stored as usual. A KeyValue
+     * set with repeated keys is never converted to a JSONArray.
+     *
+     * @param preserveDuplicates Whether or not to keep every value.
+     * @return this.
+     */
+    public VDFOptions setPreserveDuplicates(boolean preserveDuplicates) {
+        this.preserveDuplicates = preserveDuplicates;
+        return this;
+    }
+
+    /**
+     * @return The symbols that hold in conditionals.
+     */
+    public Set<String> getSymbols() {
+        return this.symbols;
+    }
+
+    /**
+     * Sets the symbols that hold in conditionals such as
+     * <code>[$WIN32]</code>, which may follow a key or a String value.
+     * Entries whose conditional doesn't hold are left out of the result.
+     *
+     * @param symbols The defined symbols, such as "WIN32" or "$WIN32".
+     * @return this.
+     * @see VDFReader#setSymbols(java.util.Collection)
+     */
+    public VDFOptions setSymbols(Set<String> symbols) {
+        this.symbols = symbols;
+        return this;
+    }
+
+    /**
+     * Gets the symbols in a form that is equal for any two sets of symbols
+     * that match the same conditionals.
+     *
+     * @return The symbols without leading dollar signs, in lower case, and
+     * sorted.
+     */
+    List<String> getSymbolNames() {
+        List<String> names = new ArrayList<String>();
+        for (String symbol : this.symbols) {
+            // Symbols match ignoring case and the leading dollar sign.
+            names.add((symbol.startsWith("$") ? symbol.substring(1) : symbol)
+                    .toLowerCase(Locale.ROOT));
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * @return The cache resolving <code>#include</code> and
+     * <code>#base</code> directives, or null if they are rejected.
+     */
+    public VDFIncludeCache getIncludes() {
+        return this.includes;
+    }
+
+    /**
+     * Sets a cache to resolve <code>#include</code> and <code>#base</code>
+     * directives with. Without one, documents containing directives fail to
+     * parse. Documents with directives are always parsed on the calling
+     * thread.
+     *
+     * @param includes The cache resolving directives, or null to reject them.
+     * @return this.
+     */
+    public VDFOptions setIncludes(VDFIncludeCache includes) {
+        this.includes = includes;
+        return this;
+    }
+
+    /**
+     * @return The cache of parsed files, or null if files are always parsed.
+     */
+    public VDFCache getCache() {
+        return this.cache;
+    }
+
+    /**
+     * Sets a cache to keep the results of parsing files in, so that files
+     * that haven't changed are loaded instead of parsed again. Only
+     * {@link VDF#toJSONObject(java.nio.file.Path, VDFOptions)} uses the
+     * cache, and only without an include cache set with
+     * {@link #setIncludes(VDFIncludeCache)}.
+     *
+     * @param cache The cache of parsed files, or null to always parse them.
+     * @return this.
+     */
+    public VDFOptions setCache(VDFCache cache) {
+        this.cache = cache;
+        return this;
+    }
+}
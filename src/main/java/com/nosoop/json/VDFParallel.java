@@ -0,0 +1,411 @@
+package com.nosoop.json;
+
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 nosoop
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Parses large VDF documents held in memory on a ForkJoinPool.
+ *
+ * A pre-scan finds the KeyValue set with the most entries near the top of the
+ * document, descending through sets that only hold a single nested set (as in
+ * <code>"appinfo" { ... }</code>). The scan only counts braces below that
+ * level, so it doesn't decode anything but the keys it needs. The entries are
+ * split into contiguous chunks that are parsed as separate documents, then
+ * merged in document order, so later duplicate keys still replace earlier
+ * ones.
+ *
+ * Whether the split set is a VDF-formatted array is decided from the keys
+ * seen by the pre-scan, so chunks know whether their KeyValue sets are array
+ * elements before they are parsed.
+ *
+ * @author nosoop < nosoop at users.noreply.github.com >
+ */
+abstract class VDFParallel {
+
+    /**
+     * Smallest chunk worth parsing as a separate task, in bytes or
+     * characters.
+     */
+    private static final int MIN_CHUNK_SIZE = 1 << 18;
+    /**
+     * Number of chunks to aim for per thread of the pool, so that threads
+     * that finish early can pick up more work.
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+    /**
+     * Deepest nesting level that is considered for splitting.
+     */
+    private static final int MAX_SPLIT_DEPTH = 8;
+    /**
+     * Stands in for nested KeyValue sets when checking the shape of the split
+     * set.
+     */
+    private static final JSONObject NESTED = new JSONObject();
+
+    /**
+     * Index of the first character or byte of the input.
+     */
+    final int start;
+    /**
+     * Index past the last character or byte of the input.
+     */
+    final int end;
+
+    VDFParallel(int start, int end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Creates a lexer over part of the input.
+     *
+     * @param from Index of the first character or byte to lex.
+     * @param to Index past the last character or byte to lex.
+     * @return A lexer over the range.
+     */
+    abstract VDFLexer lexer(int from, int to);
+
+    /**
+     * Parses VDF text held in characters on a pool.
+     *
+     * @param data The array containing VDF text.
+     * @param options The conversion options, with a pool.
+     * @return A JSON representation of the text, or null if it isn't worth
+     * splitting or could not be parsed in parallel.
+     */
+    static JSONObject build(final char[] data, VDFOptions options) {
+        return new VDFParallel(0, data.length) {
+            @Override
+            VDFLexer lexer(int from, int to) {
+                return new VDFCharLexer(data, from, to);
+            }
+        }.run(options);
+    }
+
+    /**
+     * Parses UTF-8 encoded VDF text in a ByteBuffer on a pool. The buffer's
+     * position and limit are left untouched.
+     *
+     * @param buffer The ByteBuffer containing VDF text.
+     * @param options The conversion options, with a pool.
+     * @return A JSON representation of the text, or null if it isn't worth
+     * splitting or could not be parsed in parallel.
+     */
+    static JSONObject build(final ByteBuffer buffer, VDFOptions options) {
+        return new VDFParallel(buffer.position(), buffer.limit()) {
+            @Override
+            VDFLexer lexer(int from, int to) {
+                ByteBuffer range = buffer.duplicate();
+                range.limit(to).position(from);
+                return new VDFByteLexer(range);
+            }
+        }.run(options);
+    }
+
+    /**
+     * Parses the input on the pool of the options. Any error, including a
+     * syntax error, gives up on parallel parsing so that parsing on the
+     * calling thread can report it exactly.
+     */
+    JSONObject run(VDFOptions options) {
+        ForkJoinPool pool = options.getPool();
+        if (pool.getParallelism() < 2) {
+            // The pre-scan would only be overhead.
+            return null;
+        }
+        int total = this.end - this.start;
+        int chunks = Math.min(pool.getParallelism() * CHUNKS_PER_THREAD,
+                total / MIN_CHUNK_SIZE);
+        if (chunks < 2) {
+            return null;
+        }
+
+        try {
+            Split split = this.scan(options);
+            if (split == null) {
+                return null;
+            }
+            return this.parse(split, Math.max(total / chunks, MIN_CHUNK_SIZE),
+                    options);
+        } catch (JSONException e) {
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Finds the set to split and the entries in it.
+     *
+     * @return The set to split, or null if it has too few entries.
+     */
+    private Split scan(VDFOptions options) throws JSONException {
+        VDFReader reader = new VDFReader(this.lexer(this.start, this.end))
+                .setMaxDepth(options.getMaxDepth())
+                .setSymbols(options.getSymbols());
+
+        // Entries of each level of the chain of single nested sets.
+        List<List<Entry>> levels = new ArrayList<List<Entry>>();
+        List<Integer> starts = new ArrayList<Integer>();
+        levels.add(new ArrayList<Entry>());
+        starts.add(this.start);
+        // Levels deeper than this are known not to be split.
+        int cap = MAX_SPLIT_DEPTH;
+        String key = null;
+
+        for (;;) {
+            VDFReader.Token token = reader.nextToken();
+            int depth = reader.getDepth();
+            int position = (int) reader.getPosition();
+
+            switch (token) {
+                case KEY:
+                    key = depth < levels.size() ? reader.getText() : null;
+                    break;
+                case VALUE:
+                    if (depth < levels.size()) {
+                        cap = Math.min(cap, depth);
+                        levels.get(depth).add(new Entry(key, false, position));
+                    }
+                    break;
+                case START_OBJECT:
+                    int parent = depth - 1;
+                    if (parent == levels.size() - 1 && parent < cap
+                            && levels.get(parent).isEmpty()) {
+                        // Descend into a possible chain of single sets.
+                        levels.add(new ArrayList<Entry>());
+                        starts.add(position);
+                        levels.get(parent).add(new Entry(key, true, -1));
+                    } else {
+                        reader.skipChildren();
+                        if (reader.isRejected()) {
+                            // Rejected sets are rare; leave them to parsing
+                            // on the calling thread.
+                            return null;
+                        }
+                        if (parent < levels.size()) {
+                            cap = Math.min(cap, parent);
+                            levels.get(parent).add(new Entry(key, true,
+                                    (int) reader.getPosition()));
+                        }
+                    }
+                    break;
+                case END_OBJECT:
+                    // Only sets in the chain get here without being skipped.
+                    if (reader.isRejected()) {
+                        return null;
+                    }
+                    if (depth < levels.size()) {
+                        List<Entry> entries = levels.get(depth);
+                        entries.get(entries.size() - 1).end = position;
+                    }
+                    break;
+                case EOF:
+                    return this.choose(levels, starts, cap);
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Picks the shallowest level that isn't a single nested set.
+     */
+    private Split choose(List<List<Entry>> levels, List<Integer> starts,
+            int cap) {
+        List<String> path = new ArrayList<String>();
+        for (int level = 0; level < levels.size(); level++) {
+            List<Entry> entries = levels.get(level);
+            if (level < cap && level + 1 < levels.size()
+                    && entries.size() == 1 && entries.get(0).nested) {
+                path.add(entries.get(0).key);
+                continue;
+            }
+            if (entries.size() < 2) {
+                return null;
+            }
+            return new Split(path, starts.get(level), entries);
+        }
+        return null;
+    }
+
+    /**
+     * Parses the entries of the split set in chunks and puts the document
+     * back together around them.
+     */
+    private JSONObject parse(Split split, int chunkSize, VDFOptions options)
+            throws JSONException, ExecutionException, InterruptedException {
+        boolean convertArrays = options.isConvertArrays();
+        int level = split.path.size();
+
+        // Settle which sets along the way are arrays. The outermost set
+        // never is; each set in the chain has a single nested set, so it is
+        // shaped like an array if that set's key is "0".
+        boolean[] asArray = new boolean[level + 1];
+        for (int i = 1; i <= level; i++) {
+            boolean shaped = i < level
+                    ? VDF.parseIndex(split.path.get(i), 1) == 0
+                    : split.isArrayShaped(options.isPreserveDuplicates());
+            asArray[i] = convertArrays && !asArray[i - 1] && shaped;
+        }
+
+        final boolean elements = asArray[level];
+        final VDFOptions chunkOptions = new VDFOptions()
+                .setConvertArrays(convertArrays)
+                .setMaxDepth(options.getMaxDepth() - level)
+                .setSymbols(options.getSymbols())
+                .setTypedValues(options.isTypedValues())
+                .setLazyValues(options.isLazyValues())
+                .setPreserveDuplicates(options.isPreserveDuplicates());
+
+        List<Callable<JSONObject>> tasks = new ArrayList<Callable<JSONObject>>();
+        int from = split.start;
+        for (int i = 0; i < split.entries.size(); i++) {
+            int to = split.entries.get(i).end;
+            if (to - from >= chunkSize || i == split.entries.size() - 1) {
+                final int chunkStart = from, chunkEnd = to;
+                tasks.add(new Callable<JSONObject>() {
+                    @Override
+                    public JSONObject call() throws JSONException {
+                        VDFReader reader = new VDFReader(
+                                lexer(chunkStart, chunkEnd));
+                        return VDFTreeBuilder.build(reader, chunkOptions,
+                                elements);
+                    }
+                });
+                from = to;
+            }
+        }
+
+        // Merge in document order, so later duplicates win or are added
+        // after earlier ones.
+        boolean preserveDuplicates = options.isPreserveDuplicates();
+        JSONObject merged = new JSONObject();
+        for (Future<JSONObject> result : options.getPool().invokeAll(tasks)) {
+            JSONObject chunk = result.get();
+            Iterator<?> keys = chunk.keys();
+            while (keys.hasNext()) {
+                String key = (String) keys.next();
+                Object previous = preserveDuplicates ? merged.opt(key) : null;
+                if (previous == null) {
+                    // Lazy values are moved without being decoded.
+                    merged.put(key, chunk.optUncomputed(key));
+                } else {
+                    merged.put(key, VDFMultiValue.join(previous,
+                            chunk.opt(key)));
+                }
+            }
+        }
+
+        Object value = elements ? VDF.toVDFArray(merged) : merged;
+        for (int i = level - 1; i >= 0; i--) {
+            value = asArray[i] ? new JSONArray().put(value)
+                    : new JSONObject().put(split.path.get(i), value);
+        }
+        return (JSONObject) value;
+    }
+
+    /**
+     * A KeyValue pair found by the pre-scan.
+     */
+    private static final class Entry {
+
+        /**
+         * The key of the pair.
+         */
+        final String key;
+        /**
+         * Whether or not the value is a nested KeyValue set.
+         */
+        final boolean nested;
+        /**
+         * Index just past the end of the pair.
+         */
+        int end;
+
+        Entry(String key, boolean nested, int end) {
+            this.key = key;
+            this.nested = nested;
+            this.end = end;
+        }
+    }
+
+    /**
+     * The KeyValue set chosen to be split.
+     */
+    private static final class Split {
+
+        /**
+         * Keys of the sets leading to the split set from the outermost one.
+         */
+        final List<String> path;
+        /**
+         * Index of the start of the split set's contents.
+         */
+        final int start;
+        /**
+         * The entries of the split set.
+         */
+        final List<Entry> entries;
+
+        Split(List<String> path, int start, List<Entry> entries) {
+            this.path = path;
+            this.start = start;
+            this.entries = entries;
+        }
+
+        /**
+         * @param preserveDuplicates Whether or not duplicate keys are kept,
+         * which rules out an array.
+         * @return Whether or not the split set is shaped like a VDF-formatted
+         * array, once duplicate keys have replaced earlier values.
+         */
+        boolean isArrayShaped(boolean preserveDuplicates)
+                throws JSONException {
+            JSONObject shape = new JSONObject();
+            for (Entry entry : this.entries) {
+                shape.put(entry.key, entry.nested ? NESTED : "");
+            }
+            if (preserveDuplicates && shape.length() < this.entries.size()) {
+                return false;
+            }
+            return VDF.toVDFArray(shape) != null;
+        }
+    }
+}
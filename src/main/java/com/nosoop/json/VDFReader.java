@@ -0,0 +1,975 @@
+package com.nosoop.json;
+
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 nosoop
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import org.json.JSONException;
+import org.json.JSONTokener;
+
+/**
+ * Reads a VDF document one token at a time.
+ *
+ * Unlike {@link VDF#toJSONObject(String, boolean)}, nothing is built unless
+ * asked for: the text of a key or value is only decoded when
+ * {@link #getText()} is called, and {@link #skipChildren()} passes over a
+ * nested KeyValue set without decoding anything in it. For example, <pre>
+ * VDFReader reader = new VDFReader(path);
+ * VDFReader.Token token;
+ * while ((token = reader.nextToken()) != VDFReader.Token.EOF) {
+ *     if (token == VDFReader.Token.KEY
+ *             &amp;&amp; !reader.getText().equals("interfaces")) {
+ *         if (reader.nextToken() == VDFReader.Token.START_OBJECT) {
+ *             reader.skipChildren();
+ *         }
+ *     }
+ * }</pre>
+ *
+ * Every {@link Token#START_OBJECT} is balanced by an
+ * {@link Token#END_OBJECT}, even if the input ends early.
+ *
+ * @author nosoop < nosoop at users.noreply.github.com >
+ */
+public class VDFReader {
+
+    /**
+     * The kinds of tokens in a VDF document.
+     */
+    public enum Token {
+
+        /**
+         * A key. It is followed by either a value or a nested KeyValue set.
+         */
+        KEY,
+        /**
+         * A String value for the preceding key.
+         */
+        VALUE,
+        /**
+         * The start of a nested KeyValue set for the preceding key.
+         */
+        START_OBJECT,
+        /**
+         * The end of the most recently started nested KeyValue set. If a
+         * conditional after its closing brace doesn't hold,
+         * {@link VDFReader#isRejected()} is true, and the set is to be left
+         * out along with its key.
+         */
+        END_OBJECT,
+        /**
+         * A <code>#include</code> or <code>#base</code> directive at the top
+         * level. Its text is the name of the file to include.
+         */
+        DIRECTIVE,
+        /**
+         * A C++ styled comment, only returned if comments are reported.
+         */
+        COMMENT,
+        /**
+         * The end of the document.
+         */
+        EOF
+    }
+    /**
+     * Reader state: between entries.
+     */
+    private static final int ENTRY = 0;
+    /**
+     * Reader state: after a key, which is saved in the lexer.
+     */
+    private static final int KEY = 1;
+    /**
+     * Reader state: after a key and its String value, looking for a
+     * conditional.
+     */
+    private static final int VALUE = 2;
+    /**
+     * Reader state: skipping the nested KeyValue set of a rejected entry.
+     */
+    private static final int SKIP = 3;
+    /**
+     * Reader state: after the closing brace of a nested KeyValue set,
+     * looking for a conditional.
+     */
+    private static final int CLOSE = 4;
+    /**
+     * Reader state: after the closing brace of the nested KeyValue set of a
+     * rejected entry, looking for a conditional to pass over.
+     */
+    private static final int SKIPPED = 5;
+    /**
+     * The source of tokens.
+     */
+    private final VDFLexer x;
+    /**
+     * The current token.
+     */
+    private Token token;
+    /**
+     * Number of nested KeyValue sets currently open.
+     */
+    private int depth;
+    /**
+     * The maximum number of nested KeyValue sets.
+     */
+    private int maxDepth = Integer.MAX_VALUE;
+    /**
+     * What the reader is in the middle of; one of {@link #ENTRY},
+     * {@link #KEY}, {@link #VALUE}, {@link #SKIP}, {@link #CLOSE} or
+     * {@link #SKIPPED}.
+     */
+    private int state = ENTRY;
+    /**
+     * The token to return after a key, or null.
+     */
+    private Token pending;
+    /**
+     * Whether or not the current key was followed by a conditional.
+     */
+    private boolean conditioned;
+    /**
+     * Whether or not the conditionals of the current entry hold.
+     */
+    private boolean accepted;
+    /**
+     * Whether or not the conditional after the closing brace of the set
+     * last closed doesn't hold.
+     */
+    private boolean rejected;
+    /**
+     * Number of nested KeyValue sets open in the rejected entry being
+     * skipped.
+     */
+    private int skipped;
+    /**
+     * Number of nested KeyValue sets still open in the set being passed over
+     * by {@link #skipChildren()}, or 0 if there is none.
+     */
+    private int skipping;
+    /**
+     * The symbols that are defined for conditionals, without the leading
+     * dollar sign.
+     */
+    private String[] symbols = {};
+    /**
+     * Operand and operator stacks used to evaluate conditionals.
+     */
+    private boolean[] operands = new boolean[8];
+    private char[] operators = new char[8];
+    /**
+     * Whether or not the end of the document has been reached.
+     */
+    private boolean ended;
+    /**
+     * The name of the current directive, or of the one whose file name is
+     * expected next.
+     */
+    private String directive;
+    /**
+     * Whether or not the file name of a directive is expected next.
+     */
+    private boolean afterDirective;
+    /**
+     * The file being read, or null if not reading a file.
+     */
+    private Path source;
+    /**
+     * The conditionals of the current entry when every entry is read
+     * regardless of them, or null when conditionals are evaluated.
+     */
+    private StringBuilder conditions;
+
+    /**
+     * Creates a reader over a String containing VDF text.
+     *
+     * @param string Input data, assumed to be in the Valve Data Format.
+     */
+    public VDFReader(String string) {
+        char[] data = string.toCharArray();
+        this.x = new VDFCharLexer(data, 0, data.length);
+    }
+
+    /**
+     * Creates a reader over a Reader containing VDF text.
+     *
+     * @param reader Input data, assumed to be in the Valve Data Format.
+     */
+    public VDFReader(Reader reader) {
+        this.x = new VDFCharLexer(reader);
+    }
+
+    /**
+     * Creates a reader over a JSONTokener containing VDF text.
+     *
+     * @param x A JSONTokener instantiated with VDF data.
+     */
+    public VDFReader(JSONTokener x) {
+        this.x = new VDFCharLexer(x);
+    }
+
+    /**
+     * Creates a reader over the remaining bytes of a ByteBuffer containing
+     * UTF-8 encoded VDF text.
+     *
+     * @param buffer Input data, assumed to be in the Valve Data Format.
+     */
+    public VDFReader(ByteBuffer buffer) {
+        this.x = new VDFByteLexer(buffer);
+    }
+
+    /**
+     * Creates a reader over a file containing UTF-8 encoded VDF text. The
+     * file is memory-mapped rather than read into memory.
+     *
+     * @param path Input file, assumed to be in the Valve Data Format.
+     * @throws IOException If the file could not be opened or mapped.
+     */
+    public VDFReader(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.READ)) {
+            this.x = new VDFByteLexer(VDF.map(channel));
+        }
+        this.source = path;
+    }
+
+    /**
+     * Creates a reader over the tokens of a VDFLexer.
+     *
+     * @param x A VDFLexer instantiated with VDF data.
+     */
+    VDFReader(VDFLexer x) {
+        this.x = x;
+    }
+
+    /**
+     * Sets whether comments are returned as {@link Token#COMMENT} tokens.
+     * They are skipped by default.
+     *
+     * @param reportComments Whether or not to return comments.
+     * @return this.
+     */
+    public VDFReader setReportComments(boolean reportComments) {
+        this.x.reportComments = reportComments;
+        return this;
+    }
+
+    /**
+     * Sets how deeply KeyValue sets may be nested before reading fails. By
+     * default, nesting is unlimited.
+     *
+     * @param maxDepth The maximum number of nested KeyValue sets.
+     * @return this.
+     */
+    public VDFReader setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+        return this;
+    }
+
+    /**
+     * Sets the symbols that hold in conditionals such as
+     * <code>[$WIN32]</code> or <code>[!$X360 &amp;&amp; !$OSX]</code>, which
+     * may follow a key or a String value. Symbols are matched ignoring case
+     * and with or without their leading dollar sign. Entries whose
+     * conditional doesn't hold are skipped without being decoded. By
+     * default, no symbols are defined.
+     *
+     * @param symbols The defined symbols.
+     * @return this.
+     */
+    public VDFReader setSymbols(Collection<String> symbols) {
+        String[] names = new String[symbols.size()];
+        int i = 0;
+        for (String symbol : symbols) {
+            names[i++] = symbol.startsWith("$") ? symbol.substring(1) : symbol;
+        }
+        this.symbols = names;
+        return this;
+    }
+
+    /**
+     * Creates a reader over the same input with the same maximum depth and
+     * symbols, so the input can be read twice.
+     *
+     * @return The new reader, or null if the input can only be read once or
+     * this reader has already been advanced.
+     */
+    VDFReader copy() {
+        VDFLexer lexer = this.token == null ? this.x.copy() : null;
+        if (lexer == null) {
+            return null;
+        }
+        VDFReader copy = new VDFReader(lexer);
+        copy.maxDepth = this.maxDepth;
+        copy.symbols = this.symbols;
+        copy.source = this.source;
+        return copy;
+    }
+
+    /**
+     * Reads the rest of input from a Reader or JSONTokener into memory, so
+     * that the reader can be copied as long as it hasn't returned any tokens
+     * yet. Input fed in chunks can't be read ahead.
+     *
+     * @throws JSONException If the input could not be read.
+     */
+    void readFully() throws JSONException {
+        if (this.token == null) {
+            this.x.readFully();
+        }
+    }
+
+    /**
+     * Advances to the next token.
+     *
+     * @return The type of the token.
+     * @throws JSONException If the input is not valid VDF.
+     */
+    public Token nextToken() throws JSONException {
+        if (this.skipping > 0) {
+            // Fed input ran out in the middle of skipChildren().
+            this.skip();
+            return this.token;
+        }
+        if (this.ended) {
+            return this.token = this.end();
+        }
+        if (this.pending != null) {
+            if (this.pending == Token.START_OBJECT) {
+                this.depth++;
+            }
+            this.token = this.pending;
+            this.pending = null;
+            return this.token;
+        }
+
+        for (;;) {
+            if (this.state == CLOSE || this.state == SKIPPED) {
+                // A set is only closed once it is known whether a
+                // conditional follows it.
+                if (!this.closeObject()) {
+                    return this.token = null;
+                }
+                if (this.state == SKIPPED) {
+                    this.state = ENTRY;
+                    continue;
+                }
+                this.state = ENTRY;
+                this.depth--;
+                return this.token = Token.END_OBJECT;
+            }
+            if (this.state == VALUE) {
+                // The entry is only handed out once it is known whether a
+                // conditional follows it.
+                int c = this.x.peekChar();
+                if (c == VDFLexer.MORE) {
+                    return this.token = null;
+                }
+                if (c == VDF.L_BRACKET) {
+                    if (this.x.nextToken() == VDFLexer.INCOMPLETE) {
+                        return this.token = null;
+                    }
+                    this.accepted &= this.check();
+                }
+
+                this.state = ENTRY;
+                if (this.accepted) {
+                    this.pending = Token.VALUE;
+                    return this.token = Token.KEY;
+                }
+                continue;
+            }
+
+            if (this.state == ENTRY) {
+                this.x.releaseString();
+            }
+
+            int t = this.x.nextToken();
+
+            if (t == VDFLexer.INCOMPLETE) {
+                // Fed input ran out mid-token; nothing has been consumed.
+                return this.token = null;
+            }
+
+            if (this.state == SKIP) {
+                if (t == VDFLexer.L_BRACE) {
+                    this.skipped++;
+                } else if (t == VDFLexer.R_BRACE && --this.skipped == 0) {
+                    this.state = SKIPPED;
+                } else if (t == VDFLexer.EOF) {
+                    this.state = ENTRY;
+                    this.ended = true;
+                    return this.token = this.end();
+                }
+                continue;
+            }
+
+            if (t == VDFLexer.COMMENT) {
+                return this.token = Token.COMMENT;
+            }
+
+            if (this.afterDirective) {
+                switch (t) {
+                    case VDFLexer.STRING:
+                        this.afterDirective = false;
+                        return this.token = Token.DIRECTIVE;
+                    case VDFLexer.EOF:
+                        // Partial input; the directive has no file name.
+                        this.afterDirective = false;
+                        this.ended = true;
+                        return this.token = this.end();
+                    default:
+                        throw this.x.syntaxError("Expected a file name after #"
+                                + this.directive);
+                }
+            }
+            if (t == VDFLexer.DIRECTIVE) {
+                if (this.state != ENTRY || this.depth > 0) {
+                    throw this.x.unexpectedCharacter(VDF.HASH);
+                }
+                String name = this.x.getString();
+                if (!name.equals("include") && !name.equals("base")) {
+                    throw this.x.syntaxError("Unknown directive #" + name);
+                }
+                this.directive = name;
+                this.afterDirective = true;
+                continue;
+            }
+
+            if (this.state == KEY) {
+                switch (t) {
+                    case VDFLexer.CONDITIONAL:
+                        if (this.conditioned) {
+                            throw this.x.unexpectedCharacter(VDF.L_BRACKET);
+                        }
+                        this.conditioned = true;
+                        this.accepted = this.check();
+                        continue;
+                    case VDFLexer.STRING:
+                        this.state = VALUE;
+                        continue;
+                    case VDFLexer.L_BRACE:
+                        this.state = ENTRY;
+                        if (!this.accepted) {
+                            this.state = SKIP;
+                            this.skipped = 1;
+                            continue;
+                        }
+                        if (this.depth >= this.maxDepth) {
+                            throw this.x.syntaxError("Nesting too deep");
+                        }
+                        this.pending = Token.START_OBJECT;
+                        return this.token = Token.KEY;
+                    case VDFLexer.R_BRACE:
+                        throw this.x.unexpectedCharacter(VDF.R_BRACE);
+                    default:
+                        // Partial input; the key has no value.
+                        this.state = ENTRY;
+                        this.ended = true;
+                        return this.token = this.end();
+                }
+            }
+
+            switch (t) {
+                case VDFLexer.STRING:
+                    // Keep the key until its value and any conditionals are
+                    // read.
+                    this.x.saveString();
+                    this.state = KEY;
+                    this.conditioned = false;
+                    this.accepted = true;
+                    if (this.conditions != null) {
+                        this.conditions.setLength(0);
+                    }
+                    continue;
+                case VDFLexer.R_BRACE:
+                    if (this.depth > 0) {
+                        this.state = CLOSE;
+                        continue;
+                    }
+                    // A closing brace at the top level ends the document.
+                    this.ended = true;
+                    return this.token = Token.EOF;
+                case VDFLexer.L_BRACE:
+                    throw this.x.unexpectedCharacter(VDF.L_BRACE);
+                case VDFLexer.CONDITIONAL:
+                    throw this.x.unexpectedCharacter(VDF.L_BRACKET);
+                default:
+                    this.ended = true;
+                    return this.token = this.end();
+            }
+        }
+    }
+
+    /**
+     * Reads the conditional after the closing brace of a nested KeyValue
+     * set, if there is one, and decides whether it rejects the set. When
+     * conditionals are recorded, they become those of the set.
+     *
+     * @return Whether or not it could be done without more input being fed.
+     */
+    private boolean closeObject() throws JSONException {
+        int c = this.x.peekChar();
+        if (c == VDFLexer.MORE) {
+            return false;
+        }
+        this.rejected = false;
+        if (this.conditions != null) {
+            this.conditions.setLength(0);
+        }
+        if (c == VDF.L_BRACKET) {
+            if (this.x.nextToken() == VDFLexer.INCOMPLETE) {
+                return false;
+            }
+            this.rejected = !this.check();
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the KeyValue set just closed is rejected by a
+     * conditional after its closing brace, as in
+     * <code>"key" { ... } [$X360]</code>. Its key and contents have already
+     * been returned, so it is up to the caller to leave them out.
+     *
+     * @return Whether or not the current token is an
+     * {@link Token#END_OBJECT} whose set is rejected.
+     */
+    public boolean isRejected() {
+        return this.token == Token.END_OBJECT && this.rejected;
+    }
+
+    /**
+     * Gets the current token.
+     *
+     * @return The token last returned by {@link #nextToken()}, or null if
+     * reading hasn't started.
+     */
+    public Token getToken() {
+        return this.token;
+    }
+
+    /**
+     * Gets the text of the current key, value, comment or directive. The
+     * text is decoded on each call.
+     *
+     * @return The text of the current token, or null if it has none.
+     * @throws JSONException If the text contains an unknown escape sequence.
+     */
+    public String getText() throws JSONException {
+        if (this.token == Token.KEY) {
+            return this.x.getSavedString();
+        }
+        if (this.token == Token.VALUE
+                || this.token == Token.DIRECTIVE
+                || this.token == Token.COMMENT) {
+            return this.x.getString();
+        }
+        return null;
+    }
+
+    /**
+     * Gets an object standing for the current key, equal to the one this
+     * reader returns for any key with the same text. Unlike
+     * {@link #getText()}, the key is compared in place rather than decoded
+     * where the input allows it.
+     *
+     * @return The key object, or null if the current token isn't a
+     * {@link Token#KEY}.
+     * @throws JSONException If the key contains an unknown escape sequence.
+     */
+    Object getKeyObject() throws JSONException {
+        return this.token == Token.KEY ? this.x.getSavedKey() : null;
+    }
+
+    /**
+     * Gets the current value with its type inferred from its text: integers
+     * become Integers or Longs, decimals become Doubles, and
+     * <code>true</code> and <code>false</code> become Booleans. Numbers are
+     * read straight from the input without creating a String first. Other
+     * values, including integers whose text a number can't reproduce (such
+     * as <code>007</code>), are returned as Strings.
+     *
+     * @return The value, or the same as {@link #getText()} if the current
+     * token isn't a {@link Token#VALUE}.
+     * @throws JSONException If the text contains an unknown escape sequence.
+     */
+    public Object getValue() throws JSONException {
+        return this.getValue(true, false);
+    }
+
+    /**
+     * Gets the current value as it is put into a JSONObject.
+     *
+     * @param typed Whether or not to infer the type of the value.
+     * @param lazy Whether or not Strings may be left undecoded until they are
+     * read from the JSONObject.
+     * @return The value, or the same as {@link #getText()} if the current
+     * token isn't a {@link Token#VALUE}.
+     * @throws JSONException If the text contains an unknown escape sequence.
+     */
+    Object getValue(boolean typed, boolean lazy) throws JSONException {
+        if (this.token != Token.VALUE) {
+            return this.getText();
+        }
+        if (typed) {
+            Object value = this.x.getTypedValue();
+            if (value != null) {
+                return value;
+            }
+        }
+        return lazy ? this.x.getLazyString() : this.x.getString();
+    }
+
+    /**
+     * Compares the current key to a String, without decoding the key if it
+     * can be helped.
+     *
+     * @param s The String to compare to.
+     * @return Whether or not the current token is a {@link Token#KEY} equal
+     * to the String.
+     * @throws JSONException If the key contains an unknown escape sequence.
+     */
+    boolean keyEquals(String s) throws JSONException {
+        return this.token == Token.KEY && this.x.savedEquals(s);
+    }
+
+    /**
+     * Gets the name of the current directive.
+     *
+     * @return "include" or "base" if the current token is
+     * {@link Token#DIRECTIVE}, or null otherwise.
+     */
+    public String getDirective() {
+        return this.token == Token.DIRECTIVE ? this.directive : null;
+    }
+
+    /**
+     * @return The file being read, or null if the reader wasn't created from
+     * a file.
+     */
+    Path getSource() {
+        return this.source;
+    }
+
+    /**
+     * Gets the number of nested KeyValue sets that are currently open. The
+     * depth is incremented by {@link Token#START_OBJECT} and decremented by
+     * {@link Token#END_OBJECT}.
+     *
+     * @return The nesting depth.
+     */
+    public int getDepth() {
+        return this.depth;
+    }
+
+    /**
+     * If the current token is {@link Token#START_OBJECT}, skips everything up
+     * to its matching {@link Token#END_OBJECT}, which becomes the current
+     * token. Skipped keys and values are never decoded. Otherwise does
+     * nothing.
+     *
+     * If fed input runs out before the end of the set, the current token
+     * becomes null, as if {@link #nextToken()} had run out of input. The
+     * next call to {@link #nextToken()} carries on skipping and returns the
+     * {@link Token#END_OBJECT} once it is reached.
+     *
+     * @throws JSONException If the input is not valid VDF.
+     */
+    public void skipChildren() throws JSONException {
+        if (this.token != Token.START_OBJECT) {
+            return;
+        }
+        this.skipping = 1;
+        this.skip();
+    }
+
+    /**
+     * Passes over the rest of the set being skipped by
+     * {@link #skipChildren()}, as far as the input goes.
+     */
+    private void skip() throws JSONException {
+        while (this.skipping > 0) {
+            switch (this.x.nextToken()) {
+                case VDFLexer.L_BRACE:
+                    this.skipping++;
+                    break;
+                case VDFLexer.R_BRACE:
+                    if (--this.skipping == 0) {
+                        // The set may be followed by a conditional.
+                        this.state = CLOSE;
+                    }
+                    break;
+                case VDFLexer.EOF:
+                    this.ended = true;
+                    this.skipping = 0;
+                    this.rejected = false;
+                    break;
+                case VDFLexer.INCOMPLETE:
+                    this.token = null;
+                    return;
+                default:
+                    break;
+            }
+        }
+
+        if (this.state == CLOSE) {
+            if (!this.closeObject()) {
+                // nextToken() closes the set once there is more input.
+                this.token = null;
+                return;
+            }
+            this.state = ENTRY;
+        }
+        this.depth--;
+        this.token = Token.END_OBJECT;
+    }
+
+    /**
+     * Gets the position in the input just past the current token.
+     *
+     * @return The offset of the end of the current token.
+     */
+    long getPosition() {
+        return this.x.position();
+    }
+
+    /**
+     * Make a JSONException to signal a syntax error at the current token.
+     *
+     * @param message The error message.
+     * @return A JSONException object, suitable for throwing.
+     */
+    JSONException syntaxError(String message) {
+        return this.x.syntaxError(message);
+    }
+
+    /**
+     * Reads every entry as if its conditionals held, keeping them so that
+     * they can be evaluated later with {@link #holds(String)}. Conditionals
+     * are still checked for syntax errors.
+     *
+     * @return this.
+     */
+    VDFReader setRecordConditions() {
+        this.conditions = new StringBuilder();
+        return this;
+    }
+
+    /**
+     * Gets the conditionals of the current entry when they are recorded.
+     *
+     * @return The conditionals following the key and value last returned,
+     * or at an {@link Token#END_OBJECT}, those following the closing brace
+     * of the set, joined with <code>&amp;&amp;</code>; or null if there are
+     * none.
+     */
+    String getConditions() {
+        return this.conditions == null || this.conditions.length() == 0
+                ? null : this.conditions.toString();
+    }
+
+    /**
+     * Evaluates a conditional, such as one returned by
+     * {@link #getConditions()}, against the defined symbols.
+     *
+     * @param condition The expression of the conditional, without brackets.
+     * @return Whether or not the conditional holds.
+     * @throws JSONException If the conditional is malformed.
+     */
+    boolean holds(String condition) throws JSONException {
+        this.x.condition.setLength(0);
+        this.x.condition.append(condition);
+        return this.evaluate();
+    }
+
+    /**
+     * Evaluates the current conditional, or when conditionals are recorded,
+     * adds it to those of the entry and lets the entry through.
+     */
+    private boolean check() throws JSONException {
+        boolean holds = this.evaluate();
+        if (this.conditions == null) {
+            return holds;
+        }
+        if (this.conditions.length() > 0) {
+            this.conditions.append(" && ");
+        }
+        this.conditions.append('(').append(this.x.condition).append(')');
+        return true;
+    }
+
+    /**
+     * Evaluates the current conditional against the defined symbols. Symbols
+     * may be negated with <code>!</code>, combined with <code>&amp;&amp;</code>
+     * and <code>||</code>, and grouped with parentheses.
+     *
+     * @return Whether or not the conditional holds.
+     * @throws JSONException If the conditional is malformed.
+     */
+    private boolean evaluate() throws JSONException {
+        final StringBuilder e = this.x.condition;
+        final int n = e.length();
+        int values = 0, ops = 0;
+        boolean operand = true;
+        int i = 0;
+
+        while (i < n) {
+            char c = e.charAt(i);
+
+            if (c <= ' ') {
+                i++;
+                continue;
+            }
+            if (ops + 1 >= this.operators.length) {
+                this.operators = Arrays.copyOf(this.operators, ops * 2);
+            }
+            if (values + 1 >= this.operands.length) {
+                this.operands = Arrays.copyOf(this.operands, values * 2);
+            }
+
+            if (operand) {
+                if (c == '!' || c == '(') {
+                    this.operators[ops++] = c;
+                    i++;
+                    continue;
+                }
+
+                int start = c == '$' ? i + 1 : i;
+                int end = start;
+                while (end < n && isSymbolChar(e.charAt(end))) {
+                    end++;
+                }
+                if (end == start) {
+                    break;
+                }
+
+                boolean value = this.isDefined(e, start, end);
+                while (ops > 0 && this.operators[ops - 1] == '!') {
+                    ops--;
+                    value = !value;
+                }
+                this.operands[values++] = value;
+                operand = false;
+                i = end;
+            } else if (c == ')') {
+                while (ops > 0 && this.operators[ops - 1] != '(') {
+                    values = this.reduce(this.operators[--ops], values);
+                }
+                if (ops == 0) {
+                    break;
+                }
+                ops--;
+                while (ops > 0 && this.operators[ops - 1] == '!') {
+                    ops--;
+                    this.operands[values - 1] = !this.operands[values - 1];
+                }
+                i++;
+            } else if ((c == '&' || c == '|') && i + 1 < n
+                    && e.charAt(i + 1) == c) {
+                // && binds tighter than ||.
+                while (ops > 0 && (this.operators[ops - 1] == '&'
+                        || this.operators[ops - 1] == c)) {
+                    values = this.reduce(this.operators[--ops], values);
+                }
+                this.operators[ops++] = c;
+                operand = true;
+                i += 2;
+            } else {
+                break;
+            }
+        }
+
+        if (i == n && !operand) {
+            while (ops > 0 && this.operators[ops - 1] != '(') {
+                values = this.reduce(this.operators[--ops], values);
+            }
+            if (ops == 0) {
+                return this.operands[0];
+            }
+        }
+        throw this.x.syntaxError("Malformed conditional [" + e + "]");
+    }
+
+    /**
+     * Applies a binary operator to the top two operands.
+     *
+     * @return The new number of operands.
+     */
+    private int reduce(char operator, int values) {
+        boolean b = this.operands[--values];
+        boolean a = this.operands[values - 1];
+        this.operands[values - 1] = operator == '&' ? a && b : a || b;
+        return values;
+    }
+
+    /**
+     * Checks whether a symbol in a conditional is defined.
+     */
+    private boolean isDefined(CharSequence e, int start, int end) {
+        int length = end - start;
+        for (String symbol : this.symbols) {
+            if (symbol.length() != length) {
+                continue;
+            }
+            int i = 0;
+            while (i < length && Character.toUpperCase(symbol.charAt(i))
+                    == Character.toUpperCase(e.charAt(start + i))) {
+                i++;
+            }
+            if (i == length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Whether or not a character may be part of a symbol name.
+     */
+    private static boolean isSymbolChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+                || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    /**
+     * Closes what is left open once the input has ended.
+     *
+     * @return The next token after the end of the input.
+     */
+    private Token end() {
+        this.rejected = false;
+        if (this.depth > 0) {
+            this.depth--;
+            return Token.END_OBJECT;
+        }
+        return Token.EOF;
+    }
+}
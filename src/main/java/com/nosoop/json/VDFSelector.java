@@ -0,0 +1,263 @@
+package com.nosoop.json;
+
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 nosoop
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+import java.util.Arrays;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Reads the parts of a VDF document at a set of paths, passing over
+ * everything else without decoding it or building JSONObjects for it.
+ *
+ * A path is a list of keys separated by slashes, such as
+ * <code>apilist/interfaces/*&#47;name</code>, where a <code>*</code> matches
+ * any key. The KeyValue sets a path leads through are created as needed, and
+ * whatever is at the end of it is copied whole. Paths are matched against
+ * the keys as they are read, up to 64 at a time.
+ *
+ * @author nosoop < nosoop at users.noreply.github.com >
+ */
+final class VDFSelector {
+
+    /**
+     * The segment that matches any key.
+     */
+    private static final String WILDCARD = "*";
+    /**
+     * The source of VDF tokens.
+     */
+    private final VDFReader reader;
+    /**
+     * The segments of each path.
+     */
+    private final String[][] paths;
+    /**
+     * For each open KeyValue set, the paths that still match the keys
+     * leading to it, one bit per path.
+     */
+    private long[] alive = new long[16];
+    /**
+     * For each open KeyValue set that a path matches, its JSONObject, or null
+     * until it has something in it.
+     */
+    private JSONObject[] objects = new JSONObject[16];
+    /**
+     * For each open KeyValue set that a path matches, its key.
+     */
+    private String[] keys = new String[16];
+    /**
+     * For each open KeyValue set that a path matches, the value its
+     * JSONObject replaced in the enclosing one, or null.
+     */
+    private Object[] replaced = new Object[16];
+
+    private VDFSelector(VDFReader reader, String[] paths) {
+        if (paths.length > Long.SIZE) {
+            throw new IllegalArgumentException("Too many paths: "
+                    + paths.length + " (at most " + Long.SIZE + ")");
+        }
+
+        this.reader = reader;
+        this.paths = new String[paths.length][];
+        for (int i = 0; i < paths.length; i++) {
+            String[] segments = paths[i].split("/", -1);
+            for (String segment : segments) {
+                if (segment.isEmpty()) {
+                    throw new IllegalArgumentException("Empty key in path \""
+                            + paths[i] + "\"");
+                }
+            }
+            this.paths[i] = segments;
+        }
+    }
+
+    /**
+     * Reads the parts of a VDF document at a set of paths.
+     *
+     * @param reader A VDFReader instantiated with VDF data.
+     * @param paths The paths to read.
+     * @return A JSONObject with only the selected parts of the document and
+     * the KeyValue sets leading to them.
+     * @throws JSONException Parse exception?
+     */
+    static JSONObject select(VDFReader reader, String... paths)
+            throws JSONException {
+        return new VDFSelector(reader, paths).run();
+    }
+
+    private JSONObject run() throws JSONException {
+        this.objects[0] = new JSONObject();
+        this.alive[0] = this.paths.length == Long.SIZE ? -1L
+                : (1L << this.paths.length) - 1;
+        String key = null;
+        long matched = 0;
+        long complete = 0;
+
+        for (;;) {
+            int level = this.reader.getDepth();
+            switch (this.reader.nextToken()) {
+                case KEY:
+                    matched = 0;
+                    complete = 0;
+                    for (long m = this.alive[level]; m != 0; m &= m - 1) {
+                        int i = Long.numberOfTrailingZeros(m);
+                        String[] segments = this.paths[i];
+                        String segment = segments[level];
+                        if (segment.equals(WILDCARD)
+                                || this.reader.keyEquals(segment)) {
+                            matched |= 1L << i;
+                            if (segments.length == level + 1) {
+                                complete |= 1L << i;
+                            }
+                        }
+                    }
+                    key = matched != 0 ? this.reader.getText() : null;
+                    break;
+                case VALUE:
+                    if (complete != 0) {
+                        this.ensure(level).put(key, this.reader.getText());
+                    }
+                    break;
+                case START_OBJECT:
+                    if (matched == 0) {
+                        this.reader.skipChildren();
+                    } else if (complete != 0) {
+                        JSONObject copy = this.copyObject();
+                        if (copy != null) {
+                            this.ensure(level).put(key, copy);
+                        }
+                    } else {
+                        this.push(level + 1, key, matched);
+                    }
+                    break;
+                case END_OBJECT:
+                    if (this.reader.isRejected()
+                            && this.objects[level] != null) {
+                        // Take the set back out of the enclosing one.
+                        JSONObject parent = this.objects[level - 1];
+                        if (this.replaced[level] == null) {
+                            parent.remove(this.keys[level]);
+                        } else {
+                            parent.put(this.keys[level],
+                                    this.replaced[level]);
+                        }
+                    }
+                    this.objects[level] = null;
+                    this.keys[level] = null;
+                    this.replaced[level] = null;
+                    break;
+                case DIRECTIVE:
+                    throw this.reader.syntaxError("Unsupported #"
+                            + this.reader.getDirective());
+                default:
+                    return this.objects[0];
+            }
+        }
+    }
+
+    /**
+     * Opens a KeyValue set that some paths lead through.
+     */
+    private void push(int level, String key, long matched) {
+        if (level == this.alive.length) {
+            int length = level * 2;
+            this.alive = Arrays.copyOf(this.alive, length);
+            this.objects = Arrays.copyOf(this.objects, length);
+            this.keys = Arrays.copyOf(this.keys, length);
+            this.replaced = Arrays.copyOf(this.replaced, length);
+        }
+        this.alive[level] = matched;
+        this.objects[level] = null;
+        this.keys[level] = key;
+    }
+
+    /**
+     * Gets the JSONObject of an open KeyValue set, creating it and the ones
+     * leading to it if they haven't been yet.
+     */
+    private JSONObject ensure(int level) throws JSONException {
+        JSONObject object = this.objects[level];
+        if (object == null) {
+            object = new JSONObject();
+            JSONObject parent = this.ensure(level - 1);
+            this.replaced[level] = parent.opt(this.keys[level]);
+            parent.put(this.keys[level], object);
+            this.objects[level] = object;
+        }
+        return object;
+    }
+
+    /**
+     * Reads the KeyValue set just started, up to its matching
+     * {@link VDFReader.Token#END_OBJECT}. Nested sets are added once they
+     * end, so that those rejected by a conditional can be left out.
+     *
+     * @return The KeyValue set, or null if it is rejected.
+     */
+    private JSONObject copyObject() throws JSONException {
+        JSONObject[] stack = new JSONObject[8];
+        String[] keys = new String[8];
+        int depth = 0;
+        stack[0] = new JSONObject();
+        String key = null;
+
+        for (;;) {
+            switch (this.reader.nextToken()) {
+                case KEY:
+                    key = this.reader.getText();
+                    break;
+                case VALUE:
+                    stack[depth].put(key, this.reader.getText());
+                    break;
+                case START_OBJECT:
+                    if (++depth == stack.length) {
+                        stack = Arrays.copyOf(stack, depth * 2);
+                        keys = Arrays.copyOf(keys, depth * 2);
+                    }
+                    stack[depth] = new JSONObject();
+                    keys[depth] = key;
+                    break;
+                case END_OBJECT:
+                    boolean rejected = this.reader.isRejected();
+                    if (depth == 0) {
+                        return rejected ? null : stack[0];
+                    }
+                    if (!rejected) {
+                        stack[depth - 1].put(keys[depth], stack[depth]);
+                    }
+                    stack[depth] = null;
+                    keys[depth--] = null;
+                    break;
+                case DIRECTIVE:
+                    throw this.reader.syntaxError("Unsupported #"
+                            + this.reader.getDirective());
+                default:
+                    // The document ended before the set did.
+                    return stack[0];
+            }
+        }
+    }
+}
@@ -0,0 +1,662 @@
+package com.nosoop.json;
+
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 nosoop
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.json.JSONWriter;
+
+/**
+ * Converts VDF text to JSON text and back as it is read, without building a
+ * JSONObject for the whole document.
+ *
+ * Without array conversion every token is written through as soon as it is
+ * read. With array conversion, a nested KeyValue set can't be written until
+ * it is known whether it becomes a JSONArray, so it is buffered only for as
+ * long as it could still be one: while all of its keys are indices and all of
+ * its values are KeyValue sets. The first key or value that rules it out
+ * writes the buffered part and streams the rest.
+ *
+ * Since output can't be taken back, duplicate keys are found up front by
+ * reading the input twice: the first pass only records which entries repeat
+ * a key in the same KeyValue set, comparing keys in place where the input
+ * allows it. The second pass then skips every entry but the last of a key,
+ * or when duplicates are preserved, holds on to each repeated entry until the
+ * last one, and writes them together as an array. KeyValue sets rejected by
+ * a conditional after their closing brace are found by the first pass too,
+ * and skipped by the second. Input from a Reader is read into memory as text
+ * first; only input that is fed in chunks, or that has already been partly
+ * read, is converted to a JSONObject instead.
+ *
+ * JSON text is converted to VDF with nothing buffered at all; arrays are
+ * numbered as their elements are read.
+ *
+ * @author nosoop < nosoop at users.noreply.github.com >
+ */
+final class VDFTranscoder {
+
+    /**
+     * The source of VDF tokens.
+     */
+    private final VDFReader reader;
+    /**
+     * The destination of JSON text.
+     */
+    private final JSONWriter out;
+    /**
+     * Whether or not to convert VDF-formatted arrays into JSON arrays.
+     */
+    private final boolean convertArrays;
+    /**
+     * Whether or not to write numbers and Booleans as such.
+     */
+    private final boolean typedValues;
+    /**
+     * Key of the KeyValue set being buffered.
+     */
+    private String candidateKey;
+    /**
+     * The buffered KeyValue set and its open nested sets; the buffered set is
+     * at the bottom.
+     */
+    private JSONObject[] buffer = new JSONObject[16];
+    /**
+     * Number of open sets in the buffer, or 0 if nothing is being buffered.
+     */
+    private int bufferDepth;
+    /**
+     * Whether or not every value of a repeated key is kept.
+     */
+    private final boolean preserveDuplicates;
+    /**
+     * The entries, numbered in the order their keys are read, that a later
+     * entry in the same KeyValue set repeats the key of; or null if no key
+     * is repeated.
+     */
+    private BitSet superseded;
+    /**
+     * The entries whose key is repeated in the same KeyValue set, including
+     * the last one; or null if no key is repeated.
+     */
+    private BitSet repeated;
+    /**
+     * The entries whose KeyValue set is rejected by a conditional after its
+     * closing brace; or null if none is.
+     */
+    private BitSet rejected;
+    /**
+     * Number of entries read so far.
+     */
+    private int entries;
+    /**
+     * The values held for repeated keys until the last of them is read,
+     * by depth and key.
+     */
+    private final Map<String, List<Object>> held =
+            new HashMap<String, List<Object>>();
+
+    private VDFTranscoder(VDFReader reader, Writer writer,
+            VDFOptions options) {
+        this.reader = reader;
+        this.out = new JSONWriter(writer);
+        this.convertArrays = options.isConvertArrays();
+        this.typedValues = options.isTypedValues();
+        this.preserveDuplicates = options.isPreserveDuplicates();
+    }
+
+    /**
+     * Converts the tokens of a VDFReader into JSON text.
+     *
+     * @param reader A VDFReader instantiated with VDF data.
+     * @param writer The Writer to write JSON text to.
+     * @param options The conversion options.
+     * @throws JSONException Parse exception, nesting deeper than JSONWriter
+     * allows, or if the Writer could not be written to.
+     */
+    static void toJSON(VDFReader reader, Writer writer, VDFOptions options)
+            throws JSONException {
+        reader.setMaxDepth(options.getMaxDepth())
+                .setSymbols(options.getSymbols());
+        reader.readFully();
+        VDFReader scan = reader.copy();
+        if (scan == null) {
+            VDFTreeBuilder.build(reader, options).write(writer);
+            return;
+        }
+
+        VDFTranscoder transcoder = new VDFTranscoder(reader, writer, options);
+        transcoder.scan(scan);
+        transcoder.run();
+    }
+
+    /**
+     * Finds the entries that repeat a key of the KeyValue set they are in,
+     * and the KeyValue sets rejected by a conditional after them.
+     *
+     * @param scan A reader over the same input as the one transcoded.
+     */
+    private void scan(VDFReader scan) throws JSONException {
+        // The entry number of each key seen in each open set.
+        List<Map<Object, Integer>> sets =
+                new ArrayList<Map<Object, Integer>>();
+        sets.add(new HashMap<Object, Integer>());
+        // The key and entry number of each open set; a set only counts once
+        // it is known not to be rejected.
+        List<Object> openKeys = new ArrayList<Object>();
+        int[] openEntries = new int[16];
+        Object key = null;
+        int entry = -1;
+        int entries = 0;
+
+        for (;;) {
+            switch (scan.nextToken()) {
+                case KEY:
+                    key = scan.getKeyObject();
+                    entry = entries++;
+                    break;
+                case VALUE:
+                    this.count(sets.get(scan.getDepth()), key, entry);
+                    break;
+                case START_OBJECT:
+                    if (sets.size() == scan.getDepth()) {
+                        sets.add(new HashMap<Object, Integer>());
+                    }
+                    if (openKeys.size() == openEntries.length) {
+                        openEntries = Arrays.copyOf(openEntries,
+                                openEntries.length * 2);
+                    }
+                    openEntries[openKeys.size()] = entry;
+                    openKeys.add(key);
+                    break;
+                case END_OBJECT:
+                    sets.get(scan.getDepth() + 1).clear();
+                    key = openKeys.remove(openKeys.size() - 1);
+                    entry = openEntries[openKeys.size()];
+                    if (!scan.isRejected()) {
+                        this.count(sets.get(scan.getDepth()), key, entry);
+                    } else {
+                        if (this.rejected == null) {
+                            this.rejected = new BitSet();
+                        }
+                        this.rejected.set(entry);
+                    }
+                    break;
+                case DIRECTIVE:
+                    break;
+                default:
+                    return;
+            }
+        }
+    }
+
+    /**
+     * Records an entry of a KeyValue set, marking it and the earlier entry
+     * with the same key if there is one.
+     *
+     * @param set The entry number of each key seen so far in the set.
+     */
+    private void count(Map<Object, Integer> set, Object key, int entry) {
+        Integer previous = set.put(key, entry);
+        if (previous != null) {
+            if (this.superseded == null) {
+                this.superseded = new BitSet();
+                this.repeated = new BitSet();
+            }
+            this.superseded.set(previous);
+            this.repeated.set(previous);
+            this.repeated.set(entry);
+        }
+    }
+
+    private void run() throws JSONException {
+        String key = null;
+        int entry = -1;
+        boolean rejected = false;
+        this.out.object();
+
+        for (;;) {
+            switch (this.reader.nextToken()) {
+                case KEY:
+                    key = this.reader.getText();
+                    entry = this.entries++;
+                    rejected = this.rejected != null
+                            && this.rejected.get(entry);
+                    // Only the last value of a key is written as it is read,
+                    // unless they are all kept.
+                    if (this.superseded == null || !(this.preserveDuplicates
+                            ? this.repeated : this.superseded).get(entry)) {
+                        entry = -1;
+                    }
+                    break;
+                case VALUE:
+                    Object value = this.reader.getValue(this.typedValues,
+                            false);
+                    if (entry < 0) {
+                        this.value(key, value);
+                    } else if (this.preserveDuplicates) {
+                        this.hold(key, entry, value);
+                    }
+                    break;
+                case START_OBJECT:
+                    if (rejected) {
+                        this.capture(null);
+                    } else if (entry < 0) {
+                        this.startObject(key);
+                    } else if (this.preserveDuplicates) {
+                        this.hold(key, entry, this.capture(new VDFTreeBuilder(
+                                new VDFOptions().setConvertArrays(false)
+                                .setPreserveDuplicates(true))));
+                    } else {
+                        this.capture(null);
+                    }
+                    break;
+                case END_OBJECT:
+                    this.endObject();
+                    break;
+                case DIRECTIVE:
+                    throw this.reader.syntaxError("Unsupported #"
+                            + this.reader.getDirective());
+                default:
+                    this.out.endObject();
+                    return;
+            }
+        }
+    }
+
+    private void value(String key, Object value) throws JSONException {
+        if (this.bufferDepth > 1) {
+            this.buffer[this.bufferDepth - 1].putOnce(key, value);
+            return;
+        }
+        if (this.bufferDepth == 1) {
+            // A String value or a repeated key rules out an array.
+            this.flush();
+        }
+        this.out.key(key);
+        this.writeValue(value);
+    }
+
+    /**
+     * Holds on to a value of a repeated key, and once the last of them is
+     * read, adds them all as a VDFMultiValue.
+     *
+     * @param entry The number of the entry with the value.
+     */
+    private void hold(String key, int entry, Object value)
+            throws JSONException {
+        String name = this.reader.getDepth() + "\u0000" + key;
+        List<Object> values = this.held.get(name);
+        if (values == null) {
+            values = new ArrayList<Object>();
+            this.held.put(name, values);
+        }
+        values.add(value);
+
+        if (this.superseded.get(entry)) {
+            return;
+        }
+        this.held.remove(name);
+        VDFMultiValue multi = new VDFMultiValue(values.get(0), values.get(1));
+        for (int i = 2; i < values.size(); i++) {
+            multi.put(values.get(i));
+        }
+        this.value(key, multi);
+    }
+
+    /**
+     * Reads the rest of the KeyValue set that was just started, counting
+     * the entries in it.
+     *
+     * @param builder The builder to add the contents to, or null to discard
+     * them.
+     * @return The KeyValue set, or null if it was discarded.
+     */
+    private JSONObject capture(VDFTreeBuilder builder) throws JSONException {
+        String key = null;
+        int depth = 0;
+
+        for (;;) {
+            switch (this.reader.nextToken()) {
+                case KEY:
+                    this.entries++;
+                    if (builder != null) {
+                        key = this.reader.getText();
+                    }
+                    break;
+                case VALUE:
+                    if (builder != null) {
+                        builder.value(key, this.reader.getValue(
+                                this.typedValues, false));
+                    }
+                    break;
+                case START_OBJECT:
+                    if (builder != null) {
+                        builder.startObject(key);
+                    }
+                    depth++;
+                    break;
+                case END_OBJECT:
+                    if (depth-- == 0) {
+                        return builder == null ? null : builder.finish();
+                    }
+                    if (builder != null && this.reader.isRejected()) {
+                        builder.discardObject();
+                    } else if (builder != null) {
+                        builder.endObject();
+                    }
+                    break;
+                case DIRECTIVE:
+                    throw this.reader.syntaxError("Unsupported #"
+                            + this.reader.getDirective());
+                default:
+                    return builder == null ? null : builder.finish();
+            }
+        }
+    }
+
+    private void startObject(String key) throws JSONException {
+        if (this.bufferDepth == 1
+                && VDF.parseIndex(key, Integer.MAX_VALUE) < 0) {
+            this.flush();
+        }
+
+        if (this.bufferDepth > 0) {
+            JSONObject child = new JSONObject();
+            this.buffer[this.bufferDepth - 1].putOnce(key, child);
+            if (this.bufferDepth == this.buffer.length) {
+                this.buffer = Arrays.copyOf(this.buffer, this.bufferDepth * 2);
+            }
+            this.buffer[this.bufferDepth++] = child;
+        } else if (this.convertArrays) {
+            this.candidateKey = key;
+            this.buffer[0] = new JSONObject();
+            this.bufferDepth = 1;
+        } else {
+            this.out.key(key).object();
+        }
+    }
+
+    private void endObject() throws JSONException {
+        if (this.bufferDepth == 0) {
+            this.out.endObject();
+            return;
+        }
+
+        JSONObject closed = this.buffer[--this.bufferDepth];
+        this.buffer[this.bufferDepth] = null;
+        if (this.bufferDepth == 0) {
+            // The buffered set is complete; it holds only indexed sets.
+            this.out.key(this.candidateKey);
+            this.writeValue(closed);
+        }
+    }
+
+    /**
+     * Writes the start of the buffered KeyValue set as an object and its
+     * buffered children, then goes back to streaming.
+     */
+    private void flush() throws JSONException {
+        JSONObject candidate = this.buffer[0];
+        this.buffer[0] = null;
+        this.bufferDepth = 0;
+
+        this.out.key(this.candidateKey).object();
+        List<Container> open = new ArrayList<Container>();
+        // The object stays open for the rest of the set.
+        open.add(new Container(candidate, '\0'));
+        this.write(open);
+    }
+
+    /**
+     * Writes a buffered or held value.
+     */
+    private void writeValue(Object value) throws JSONException {
+        List<Container> open = new ArrayList<Container>();
+        this.begin(value, this.convertArrays, open);
+        this.write(open);
+    }
+
+    /**
+     * Writes the rest of the contents of a stack of open containers, nested
+     * ones included, and closes them. Nested values are written from the
+     * stack rather than by recursion.
+     *
+     * @param open The open containers, the innermost last.
+     */
+    private void write(List<Container> open) throws JSONException {
+        while (!open.isEmpty()) {
+            Container top = open.get(open.size() - 1);
+            if (top.hasNext()) {
+                // Elements of an array stay objects, but their own children
+                // may be arrays.
+                boolean convert = this.convertArrays && !top.converted;
+                this.begin(top.next(this.out), convert, open);
+            } else {
+                top.end(this.out);
+                open.remove(open.size() - 1);
+            }
+        }
+    }
+
+    /**
+     * Writes a plain value, or starts writing a container and pushes it on
+     * the stack of open containers.
+     *
+     * @param convert Whether or not a JSONObject shaped like an array is
+     * written as a JSONArray.
+     */
+    private void begin(Object value, boolean convert, List<Container> open)
+            throws JSONException {
+        if (value instanceof VDFMultiValue) {
+            this.out.array();
+            open.add(new Container((VDFMultiValue) value, false));
+        } else if (!(value instanceof JSONObject)) {
+            this.out.value(value);
+        } else {
+            JSONArray array = convert ? VDF.toVDFArray((JSONObject) value)
+                    : null;
+            if (array == null) {
+                this.out.object();
+                open.add(new Container((JSONObject) value, '}'));
+            } else {
+                this.out.array();
+                open.add(new Container(array, true));
+            }
+        }
+    }
+
+    /**
+     * A buffered object or array being written.
+     */
+    private static final class Container {
+
+        /**
+         * The object, or null for an array.
+         */
+        private final JSONObject object;
+        /**
+         * The keys of the object left to write.
+         */
+        private final Iterator<?> keys;
+        /**
+         * The array: the values of a repeated key, or a KeyValue set
+         * converted to an array.
+         */
+        private final JSONArray array;
+        /**
+         * Whether or not the array was converted from a KeyValue set.
+         */
+        private final boolean converted;
+        /**
+         * Index of the next element of the array to write.
+         */
+        private int index;
+        /**
+         * The closing character, or '\0' if the container is left open.
+         */
+        private final char end;
+
+        Container(JSONObject object, char end) {
+            this.object = object;
+            this.keys = object.keys();
+            this.array = null;
+            this.converted = false;
+            this.end = end;
+        }
+
+        Container(JSONArray array, boolean converted) {
+            this.object = null;
+            this.keys = null;
+            this.array = array;
+            this.converted = converted;
+            this.end = ']';
+        }
+
+        boolean hasNext() {
+            return this.keys != null ? this.keys.hasNext()
+                    : this.index < this.array.length();
+        }
+
+        /**
+         * Gets the next value to write, after writing its key if the
+         * container is an object.
+         */
+        Object next(JSONWriter out) throws JSONException {
+            if (this.keys == null) {
+                return this.array.get(this.index++);
+            }
+            String key = (String) this.keys.next();
+            out.key(key);
+            return this.object.get(key);
+        }
+
+        void end(JSONWriter out) throws JSONException {
+            if (this.end == '}') {
+                out.endObject();
+            } else if (this.end == ']') {
+                out.endArray();
+            }
+        }
+    }
+
+    /**
+     * Converts the JSON text of a JSONTokener into VDF text. The text must be
+     * a JSON object; anything following it is ignored.
+     *
+     * @param x A JSONTokener instantiated with JSON text.
+     * @param out The VDFWriter to write the contents to.
+     * @throws JSONException Parse exception, a null value, or if the Writer
+     * could not be written to.
+     */
+    static void toVDF(JSONTokener x, VDFWriter out) throws JSONException {
+        if (x.nextClean() != '{') {
+            throw x.syntaxError("A JSONObject text must begin with '{'");
+        }
+
+        // The next index of each open array, or -1 for an object.
+        int[] counters = new int[16];
+        int top = 0;
+        counters[0] = -1;
+        boolean first = true;
+
+        while (top >= 0) {
+            boolean array = counters[top] >= 0;
+            char end = array ? ']' : '}';
+            char c = x.nextClean();
+
+            if (!first) {
+                if (c == ',' || c == ';') {
+                    c = x.nextClean();
+                } else if (c != end) {
+                    throw x.syntaxError("Expected a ',' or '" + end + "'");
+                }
+            }
+            if (c == end) {
+                if (top-- > 0) {
+                    out.endObject();
+                }
+                first = false;
+                continue;
+            }
+
+            String key;
+            if (array) {
+                key = Integer.toString(counters[top]++);
+            } else {
+                switch (c) {
+                    case 0:
+                        throw x.syntaxError("A JSONObject text must end with '}'");
+                    case '"':
+                    case '\'':
+                        key = x.nextString(c);
+                        break;
+                    default:
+                        x.back();
+                        key = x.nextValue().toString();
+                }
+
+                c = x.nextClean();
+                if (c == '=') {
+                    if (x.next() != '>') {
+                        x.back();
+                    }
+                } else if (c != ':') {
+                    throw x.syntaxError("Expected a ':' after a key");
+                }
+                c = x.nextClean();
+            }
+
+            first = false;
+            switch (c) {
+                case '"':
+                case '\'':
+                    out.keyValue(key, x.nextString(c));
+                    break;
+                case '{':
+                case '[':
+                    out.startObject(key);
+                    if (++top == counters.length) {
+                        counters = Arrays.copyOf(counters, top * 2);
+                    }
+                    counters[top] = c == '[' ? 0 : -1;
+                    first = true;
+                    break;
+                default:
+                    x.back();
+                    out.keyValue(key, VDF.valueToString(key, x.nextValue()));
+            }
+        }
+    }
+}
@@ -0,0 +1,558 @@
+package com.nosoop.json;
+
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 nosoop
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONLazyValue;
+import org.json.JSONObject;
+
+/**
+ * Builds a JSONObject from the contents of a VDF document as they are read.
+ *
+ * Nested KeyValue sets are kept on an explicit stack rather than the call
+ * stack, so deeply nested documents don't cause a StackOverflowError.
+ *
+ * @author nosoop < nosoop at users.noreply.github.com >
+ */
+final class VDFTreeBuilder {
+
+    /**
+     * Whether or not to convert VDF-formatted arrays into JSONArrays.
+     */
+    private final boolean convertArrays;
+    /**
+     * Whether or not to keep every value of a repeated key.
+     */
+    private final boolean preserveDuplicates;
+    /**
+     * The enclosing KeyValue sets of the current one.
+     */
+    private Block[] stack = new Block[16];
+    /**
+     * Number of KeyValue sets on the stack.
+     */
+    private int top;
+    /**
+     * The KeyValue set currently being added to.
+     */
+    private Block block = new Block(null);
+    /**
+     * Work list used while settling array-shaped KeyValue sets.
+     */
+    private Block[] work = new Block[16];
+
+    /**
+     * Creates a builder for a new document.
+     *
+     * @param options The conversion options.
+     */
+    VDFTreeBuilder(VDFOptions options) {
+        this(options.isConvertArrays(), options.isPreserveDuplicates());
+    }
+
+    private VDFTreeBuilder(boolean convertArrays,
+            boolean preserveDuplicates) {
+        this.convertArrays = convertArrays;
+        this.preserveDuplicates = preserveDuplicates;
+    }
+
+    /**
+     * Converts the tokens of a VDFReader into the JSON format.
+     *
+     * @param reader A VDFReader instantiated with VDF data.
+     * @param options The conversion options.
+     * @return A JSON representation of the assumed-VDF data.
+     * @throws JSONException Parse exception?
+     */
+    static JSONObject build(VDFReader reader, VDFOptions options)
+            throws JSONException {
+        return build(reader, options, false);
+    }
+
+    /**
+     * Converts the tokens of a VDFReader into the JSON format, as part of a
+     * KeyValue set that may become a JSONArray.
+     *
+     * @param reader A VDFReader instantiated with VDF data.
+     * @param options The conversion options.
+     * @param asArray Whether or not the KeyValue set read becomes a
+     * JSONArray, leaving the sets in it as JSONObjects.
+     * @return A JSON representation of the assumed-VDF data.
+     * @throws JSONException Parse exception?
+     */
+    static JSONObject build(VDFReader reader, VDFOptions options,
+            boolean asArray) throws JSONException {
+        VDFIncludeCache includes = options.getIncludes();
+        if (includes == null) {
+            VDFTreeBuilder builder = new VDFTreeBuilder(options);
+            builder.read(reader, options, null);
+            return builder.finish(asArray);
+        }
+
+        // Arrays are converted once everything is merged in, since keys
+        // from included files can change the shape of a KeyValue set.
+        List<String> directives = new ArrayList<String>();
+        JSONObject document = build(reader, options, directives);
+        if (!directives.isEmpty()) {
+            includes.apply(document, directives, reader.getSource(), options);
+        }
+
+        if (!options.isConvertArrays()) {
+            return document;
+        }
+        VDFTreeBuilder builder = new VDFTreeBuilder(true,
+                options.isPreserveDuplicates());
+        builder.add(document);
+        return builder.finish(asArray);
+    }
+
+    /**
+     * Converts the tokens of a VDFReader into the JSON format without
+     * converting arrays, collecting its <code>#include</code> and
+     * <code>#base</code> directives rather than resolving them.
+     *
+     * @param reader A VDFReader instantiated with VDF data.
+     * @param options The conversion options; arrays are not converted
+     * regardless.
+     * @param directives A list to add the name and file name of each
+     * directive to, in order.
+     * @return A JSON representation of the assumed-VDF data.
+     * @throws JSONException Parse exception?
+     */
+    static JSONObject build(VDFReader reader, VDFOptions options,
+            List<String> directives) throws JSONException {
+        VDFTreeBuilder builder = new VDFTreeBuilder(false,
+                options.isPreserveDuplicates());
+        builder.read(reader, options, directives);
+        return builder.finish();
+    }
+
+    /**
+     * Copies a JSONObject, including all nested JSONObjects and
+     * VDFMultiValues, without converting arrays.
+     *
+     * @param object The JSONObject to copy.
+     * @return The copy.
+     * @throws JSONException
+     */
+    static JSONObject copy(JSONObject object) throws JSONException {
+        VDFTreeBuilder builder = new VDFTreeBuilder(false, true);
+        builder.add(object);
+        return builder.finish();
+    }
+
+    /**
+     * Adds the tokens of a VDFReader to the document.
+     *
+     * @param directives A list to collect directives in, or null if they
+     * aren't allowed.
+     */
+    private void read(VDFReader reader, VDFOptions options,
+            List<String> directives) throws JSONException {
+        reader.setMaxDepth(options.getMaxDepth())
+                .setSymbols(options.getSymbols());
+        final boolean typedValues = options.isTypedValues();
+        // Directives are only collected for the include cache, which keeps
+        // its documents long after their input is gone.
+        final boolean lazyValues = options.isLazyValues() && directives == null;
+        String key = null;
+
+        for (;;) {
+            switch (reader.nextToken()) {
+                case KEY:
+                    key = reader.getText();
+                    break;
+                case VALUE:
+                    this.value(key, reader.getValue(typedValues, lazyValues));
+                    break;
+                case START_OBJECT:
+                    this.startObject(key);
+                    break;
+                case END_OBJECT:
+                    if (reader.isRejected()) {
+                        this.discardObject();
+                    } else {
+                        this.endObject();
+                    }
+                    break;
+                case DIRECTIVE:
+                    if (directives == null) {
+                        throw reader.syntaxError("Unresolved #"
+                                + reader.getDirective() + " \""
+                                + reader.getText() + "\"; set includes in"
+                                + " the VDFOptions to resolve it");
+                    }
+                    directives.add(reader.getDirective());
+                    directives.add(reader.getText());
+                    break;
+                case EOF:
+                    return;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Adds the contents of a JSONObject to the document, as if they were
+     * read from VDF text.
+     */
+    private void add(JSONObject object) throws JSONException {
+        try {
+            new VDFTreeWalker() {
+                @Override
+                void startObject(String key) {
+                    VDFTreeBuilder.this.startObject(key);
+                }
+
+                @Override
+                void value(String key, Object value) throws JSONException {
+                    VDFTreeBuilder.this.value(key, value);
+                }
+
+                @Override
+                void endObject() throws JSONException {
+                    VDFTreeBuilder.this.endObject();
+                }
+            }.walk(object);
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+    }
+
+    /**
+     * Adds a value to the current KeyValue set.
+     *
+     * @param key The key.
+     * @param value The value.
+     * @throws JSONException
+     */
+    void value(String key, Object value) throws JSONException {
+        this.put(this.block.object, key, value);
+        this.block.array = false;
+        this.block.count++;
+    }
+
+    /**
+     * Opens a nested KeyValue set in the current one.
+     *
+     * @param key The key of the nested KeyValue set.
+     */
+    void startObject(String key) {
+        if (this.top == this.stack.length) {
+            Block[] grown = new Block[this.top * 2];
+            System.arraycopy(this.stack, 0, grown, 0, this.top);
+            this.stack = grown;
+        }
+        this.stack[this.top++] = this.block;
+        this.block = new Block(key);
+    }
+
+    /**
+     * Closes the current KeyValue set and adds it to the enclosing one.
+     *
+     * @throws JSONException If no KeyValue set is open.
+     */
+    void endObject() throws JSONException {
+        if (this.top == 0) {
+            throw new JSONException("Nesting error.");
+        }
+
+        Block child = this.block;
+        this.close(child);
+
+        this.block = this.stack[--this.top];
+        this.stack[this.top] = null;
+        child.index = this.put(this.block.object, child.key, child.object);
+        this.addChild(this.block, child);
+    }
+
+    /**
+     * Closes the current KeyValue set without adding it to the enclosing
+     * one, as if it had never been opened.
+     *
+     * @throws JSONException If no KeyValue set is open.
+     */
+    void discardObject() throws JSONException {
+        if (this.top == 0) {
+            throw new JSONException("Nesting error.");
+        }
+
+        this.block = this.stack[--this.top];
+        this.stack[this.top] = null;
+    }
+
+    /**
+     * Adds a KeyValue pair to a set. A repeated key replaces the earlier
+     * value, or when duplicates are preserved, joins it in a VDFMultiValue.
+     *
+     * @return The index of the value in the VDFMultiValue it joined, or -1
+     * if it was put in the set by itself.
+     */
+    private int put(JSONObject object, String key, Object value)
+            throws JSONException {
+        Object previous;
+        if (!this.preserveDuplicates
+                || (previous = object.opt(key)) == null) {
+            object.put(key, value);
+            return -1;
+        }
+
+        if (value instanceof JSONLazyValue) {
+            // Only the values of a JSONObject are resolved when read.
+            value = ((JSONLazyValue) value).getValue();
+        }
+        if (previous instanceof VDFMultiValue) {
+            VDFMultiValue values = (VDFMultiValue) previous;
+            values.put(value);
+            return values.length() - 1;
+        }
+        object.put(key, new VDFMultiValue(previous, value));
+        return 1;
+    }
+
+    /**
+     * Closes whatever is left open and returns the finished document.
+     *
+     * @return The outermost KeyValue set.
+     * @throws JSONException
+     */
+    JSONObject finish() throws JSONException {
+        return this.finish(false);
+    }
+
+    /**
+     * Closes whatever is left open and returns the finished contents of the
+     * outermost KeyValue set.
+     *
+     * @param asArray Whether or not the outermost KeyValue set becomes a
+     * JSONArray elsewhere, leaving its nested sets as JSONObjects. It is
+     * returned as a JSONObject either way.
+     * @return The outermost KeyValue set.
+     * @throws JSONException
+     */
+    JSONObject finish(boolean asArray) throws JSONException {
+        while (this.top > 0) {
+            this.endObject();
+        }
+
+        if (this.convertArrays) {
+            // The outermost KeyValue set is never an array itself, but it
+            // may stand in for part of one.
+            this.resolve(this.block, asArray);
+        }
+
+        return this.block.object;
+    }
+
+    /**
+     * Records a nested KeyValue set that was added to another.
+     *
+     * @param block The enclosing KeyValue set.
+     * @param child The nested KeyValue set, already closed.
+     */
+    private void addChild(Block block, Block child) {
+        block.count++;
+        if (!this.convertArrays) {
+            return;
+        }
+
+        if (block.array && block.ordered) {
+            int index = block.elements == null ? 0 : block.elements.length();
+            if (VDF.parseIndex(child.key, index + 1) == index) {
+                if (block.elements == null) {
+                    block.elements = new JSONArray();
+                }
+                block.elements.put(child.object);
+            } else {
+                block.ordered = false;
+                block.elements = null;
+            }
+        }
+
+        if (child.array) {
+            if (block.pending == null) {
+                block.pending = new ArrayList<Block>();
+            }
+            block.pending.add(child);
+        }
+    }
+
+    /**
+     * Decides whether a KeyValue set is a VDF-formatted array once all of its
+     * contents are known.
+     *
+     * @param block The KeyValue set being closed.
+     * @throws JSONException
+     */
+    private void close(Block block) throws JSONException {
+        if (!this.convertArrays) {
+            block.array = false;
+            return;
+        }
+
+        if (block.count != block.object.length()) {
+            // Duplicate keys replaced earlier values; what's left may still
+            // be an array, so check everything that remains.
+            block.array = true;
+            block.ordered = false;
+        }
+
+        if (block.array && !block.ordered) {
+            // Keys weren't in order, so fall back to checking them all.
+            block.elements = VDF.toVDFArray(block.object);
+            block.array = block.elements != null;
+        } else if (block.array && block.elements == null) {
+            // Note:  Empty JSONObjects are also treated as arrays.
+            block.elements = new JSONArray();
+        }
+
+        if (!block.array) {
+            this.resolve(block, false);
+        }
+    }
+
+    /**
+     * Settles what a KeyValue set becomes, and with it, what its array-shaped
+     * nested KeyValue sets become. A JSONObject converts them to JSONArrays;
+     * a JSONArray leaves them as JSONObjects, but their own nested sets may
+     * be converted in turn.
+     *
+     * @param block The KeyValue set to settle.
+     * @param asArray Whether or not the KeyValue set becomes a JSONArray.
+     * @throws JSONException
+     */
+    private void resolve(Block block, boolean asArray) throws JSONException {
+        if (block.pending == null) {
+            return;
+        }
+
+        int size = 0;
+        block.resolveAsArray = asArray;
+        this.work[size++] = block;
+
+        while (size > 0) {
+            Block b = this.work[--size];
+            this.work[size] = null;
+
+            if (b.pending == null) {
+                continue;
+            }
+
+            for (Block child : b.pending) {
+                Object current = b.object.opt(child.key);
+                if (current instanceof VDFMultiValue) {
+                    // A set with repeated keys is never an array itself. A
+                    // set put by itself became the first of the values.
+                    VDFMultiValue values = (VDFMultiValue) current;
+                    int index = Math.max(child.index, 0);
+                    if (values.opt(index) != child.object) {
+                        continue;
+                    }
+                    values.put(index, child.elements);
+                } else if (current != child.object) {
+                    // Skip nested sets replaced by a duplicate key.
+                    continue;
+                } else if (!b.resolveAsArray) {
+                    b.object.put(child.key, child.elements);
+                }
+
+                if (child.pending != null) {
+                    if (size == this.work.length) {
+                        Block[] grown = new Block[size * 2];
+                        System.arraycopy(this.work, 0, grown, 0, size);
+                        this.work = grown;
+                    }
+                    child.resolveAsArray = !b.resolveAsArray;
+                    this.work[size++] = child;
+                }
+            }
+
+            b.pending = null;
+        }
+    }
+
+    /**
+     * A KeyValue set being built, along with what is needed to turn it into a
+     * JSONArray if it turns out to be a VDF-formatted array.
+     *
+     * Whether a KeyValue set becomes a JSONArray depends on its parent: the
+     * elements of an array are left as JSONObjects even if they look like
+     * arrays themselves. A set that is not array-shaped settles the fate of
+     * its children as soon as it is closed; array-shaped ones wait for their
+     * parent to decide.
+     */
+    private static final class Block {
+
+        /**
+         * The key of the KeyValue set in its parent.
+         */
+        final String key;
+        /**
+         * The KeyValue pairs of the set.
+         */
+        final JSONObject object = new JSONObject();
+        /**
+         * Whether or not the set can still be a VDF-formatted array.
+         */
+        boolean array = true;
+        /**
+         * Whether or not all keys so far were "0" to "n" in order.
+         */
+        boolean ordered = true;
+        /**
+         * Number of KeyValue pairs added, including ones that replaced an
+         * earlier pair with the same key.
+         */
+        int count;
+        /**
+         * The nested sets in order while the keys are "0" to "n", or all of
+         * the set's values once it is known to be an array.
+         */
+        JSONArray elements;
+        /**
+         * Nested sets that are array-shaped and waiting for this one to
+         * decide what they become.
+         */
+        List<Block> pending;
+        /**
+         * Whether the set is being settled as a JSONArray.
+         */
+        boolean resolveAsArray;
+        /**
+         * Where the set is in the VDFMultiValue of its key, or -1 if it was
+         * put in its parent by itself.
+         */
+        int index = -1;
+
+        Block(String key) {
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.nosoop.json;
+
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 nosoop
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Visits the contents of a JSONObject the way they would be laid out in a VDF
+ * document, with JSONArrays expanded into KeyValue sets keyed "0" to "n" and
+ * the values of a VDFMultiValue visited one after another under its key.
+ *
+ * Nested values are kept on an explicit stack rather than the call stack, so
+ * deeply nested trees don't cause a StackOverflowError.
+ *
+ * @author nosoop < nosoop at users.noreply.github.com >
+ */
+abstract class VDFTreeWalker {
+
+    /**
+     * Called when a nested JSONObject or JSONArray is entered.
+     *
+     * @param key The key of the nested value.
+     */
+    abstract void startObject(String key) throws JSONException, IOException;
+
+    /**
+     * Called for each value that isn't a JSONObject or JSONArray.
+     *
+     * @param key The key of the value.
+     * @param value The value; never a JSONObject or JSONArray.
+     */
+    abstract void value(String key, Object value) throws JSONException, IOException;
+
+    /**
+     * Called when the most recently entered value is left. Not called for the
+     * root.
+     */
+    abstract void endObject() throws JSONException, IOException;
+
+    /**
+     * Visits the contents of a JSONObject, depth-first in iteration order.
+     *
+     * @param root The JSONObject to visit.
+     * @throws JSONException If a callback rejected a value.
+     * @throws IOException If a callback failed to write a value.
+     */
+    final void walk(JSONObject root) throws JSONException, IOException {
+        Object[] containers = new Object[16];
+        Iterator<?>[] keys = new Iterator<?>[16];
+        int[] indices = new int[16];
+        // The key of each VDFMultiValue being visited.
+        String[] names = new String[16];
+        int top = 0;
+        containers[0] = root;
+        keys[0] = root.keys();
+
+        for (;;) {
+            Object container = containers[top];
+            String key;
+            Object value;
+
+            if (container instanceof JSONArray) {
+                JSONArray array = (JSONArray) container;
+                int index = indices[top]++;
+                boolean multi = array instanceof VDFMultiValue;
+                if (index == array.length()) {
+                    containers[top--] = null;
+                    if (!multi) {
+                        this.endObject();
+                    }
+                    continue;
+                }
+                key = multi ? names[top] : Integer.toString(index);
+                value = array.get(index);
+            } else {
+                if (!keys[top].hasNext()) {
+                    if (top == 0) {
+                        return;
+                    }
+                    keys[top] = null;
+                    containers[top--] = null;
+                    this.endObject();
+                    continue;
+                }
+                key = (String) keys[top].next();
+                value = ((JSONObject) container).get(key);
+            }
+
+            if (value instanceof JSONObject || value instanceof JSONArray) {
+                boolean multi = value instanceof VDFMultiValue;
+                if (!multi) {
+                    this.startObject(key);
+                }
+
+                if (++top == containers.length) {
+                    int size = top * 2;
+                    containers = Arrays.copyOf(containers, size);
+                    keys = Arrays.copyOf(keys, size);
+                    indices = Arrays.copyOf(indices, size);
+                    names = Arrays.copyOf(names, size);
+                }
+                containers[top] = value;
+                names[top] = multi ? key : null;
+                if (value instanceof JSONObject) {
+                    keys[top] = ((JSONObject) value).keys();
+                } else {
+                    indices[top] = 0;
+                }
+            } else {
+                this.value(key, value);
+            }
+        }
+    }
+}
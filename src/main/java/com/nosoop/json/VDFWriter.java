@@ -0,0 +1,217 @@
+package com.nosoop.json;
+
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 nosoop
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+import java.io.IOException;
+import java.io.Writer;
+import org.json.JSONException;
+
+/**
+ * Writes VDF text to a Writer as it is produced, without building the
+ * document in memory first.
+ *
+ * Nested KeyValue sets are opened with {@link #startObject(String)} and
+ * closed with {@link #endObject()}; Strings are quoted and escaped using the
+ * escape sequences the parser accepts. Output is indented with tabs, in the
+ * same layout Valve's tools use.
+ *
+ * As a VDFHandler, a VDFWriter can also be passed to
+ * {@link VDF#parse(String, VDFHandler)} to reformat a document.
+ *
+ * @author nosoop < nosoop at users.noreply.github.com >
+ */
+public class VDFWriter implements VDFHandler {
+
+    /**
+     * Indentation Strings for the most common depths.
+     */
+    private static final String[] INDENTS = new String[32];
+
+    static {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < INDENTS.length; i++) {
+            INDENTS[i] = sb.toString();
+            sb.append('\t');
+        }
+    }
+
+    /**
+     * The Writer to write VDF text to.
+     */
+    private final Writer writer;
+    /**
+     * Number of KeyValue sets currently open.
+     */
+    private int depth;
+
+    /**
+     * Creates a VDFWriter. The Writer is neither flushed nor closed; wrap it
+     * in a BufferedWriter if it is slow to write to.
+     *
+     * @param writer The Writer to write VDF text to.
+     */
+    public VDFWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Opens a nested KeyValue set.
+     *
+     * @param key The key of the nested KeyValue set.
+     * @throws JSONException If the Writer could not be written to.
+     */
+    @Override
+    public void startObject(String key) throws JSONException {
+        try {
+            this.indent();
+            this.quote(key);
+            this.writer.write('\n');
+            this.indent();
+            this.writer.write("{\n");
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+        this.depth++;
+    }
+
+    /**
+     * Writes a key with a String value.
+     *
+     * @param key The key.
+     * @param value The value.
+     * @throws JSONException If the Writer could not be written to.
+     */
+    @Override
+    public void keyValue(String key, String value) throws JSONException {
+        try {
+            this.indent();
+            this.quote(key);
+            this.writer.write("\t\t");
+            this.quote(value);
+            this.writer.write('\n');
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+    }
+
+    /**
+     * Closes the most recently opened KeyValue set.
+     *
+     * @throws JSONException If no KeyValue set is open, or the Writer could
+     * not be written to.
+     */
+    @Override
+    public void endObject() throws JSONException {
+        if (this.depth == 0) {
+            throw new JSONException("Misplaced endObject.");
+        }
+        this.depth--;
+        try {
+            this.indent();
+            this.writer.write("}\n");
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+    }
+
+    /**
+     * Writes a C++ styled comment on a line of its own.
+     *
+     * @param text The text of the comment following the slashes. Line breaks
+     * are not allowed.
+     * @throws JSONException If the text contains a line break, or the Writer
+     * could not be written to.
+     */
+    @Override
+    public void comment(String text) throws JSONException {
+        if (text.indexOf('\n') >= 0 || text.indexOf('\r') >= 0) {
+            throw new JSONException("Line break in comment.");
+        }
+        try {
+            this.indent();
+            this.writer.write("//");
+            this.writer.write(text);
+            this.writer.write('\n');
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+    }
+
+    /**
+     * @return The number of KeyValue sets currently open.
+     */
+    public int getDepth() {
+        return this.depth;
+    }
+
+    /**
+     * Writes the indentation for the current depth.
+     */
+    private void indent() throws IOException {
+        int n = this.depth;
+        while (n >= INDENTS.length) {
+            this.writer.write(INDENTS[INDENTS.length - 1]);
+            n -= INDENTS.length - 1;
+        }
+        this.writer.write(INDENTS[n]);
+    }
+
+    /**
+     * Writes a String in quotes, escaping characters that can't appear
+     * as-is. Runs of plain characters are written in one call.
+     */
+    private void quote(String s) throws IOException {
+        Writer w = this.writer;
+        w.write(VDF.QUOTE);
+
+        int length = s.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            char escape;
+            switch (c) {
+                case '\n':
+                    escape = 'n';
+                    break;
+                case '\t':
+                    escape = 't';
+                    break;
+                case VDF.BACK_SLASH:
+                case VDF.QUOTE:
+                    escape = c;
+                    break;
+                default:
+                    continue;
+            }
+            w.write(s, start, i - start);
+            w.write(VDF.BACK_SLASH);
+            w.write(escape);
+            start = i + 1;
+        }
+        w.write(s, start, length - start);
+
+        w.write(VDF.QUOTE);
+    }
+}
@@ -0,0 +1,148 @@
+package org.json;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A <code>JSONKeyPool</code> lets <code>JSONObject</code>s share one String
+ * for each key that is used over and over, like <code>String.intern</code>
+ * but bounded, so memory is never tied up for good.
+ * <p>
+ * The pool is a fixed-size table that can be used from any number of threads
+ * without locking. Each key has two slots it may be kept in. A key that is
+ * not in the pool goes into the first of them, moving the key already there
+ * to the second, so the least recently added of the two keys is evicted.
+ * Keys that keep coming back keep their place, while a burst of new keys only
+ * displaces the keys in the slots it touches.
+ * <p>
+ * Lookups are counted, split between hits and misses, to help choose a size.
+ * The counts are striped: each thread adds to one of a fixed set of counters,
+ * picked by a hash of the thread, and the counters are padded apart so that
+ * threads on different stripes do not share a cache line.
+ */
+public class JSONKeyPool {
+    /**
+     * The pooled keys. Each pair of slots starting at an even index holds
+     * the keys of one hash bucket, the most recently added first.
+     */
+    private final AtomicReferenceArray<String> slots;
+
+    /**
+     * Mask for the index of a bucket's first slot.
+     */
+    private final int mask;
+
+    /**
+     * The space between stripes, in longs, to keep them on separate cache
+     * lines. The hit and miss counters of a stripe are next to each other.
+     */
+    private static final int PADDING = 8;
+
+    /**
+     * The number of stripes: twice the processor count, rounded up to a power
+     * of two, and at most 64.
+     */
+    private static final int STRIPES = Math.min(64, Integer.highestOneBit(
+            Math.max(1, Runtime.getRuntime().availableProcessors()) * 4 - 1));
+
+    /**
+     * The hit counter of each stripe, followed by its miss counter.
+     */
+    private final AtomicLongArray counts =
+            new AtomicLongArray(STRIPES * PADDING);
+
+    /**
+     * Construct a pool that holds up to a number of keys.
+     * @param capacity The most keys to hold. It is rounded up to a power of
+     *  two, and to at least two.
+     * @throws IllegalArgumentException If the capacity is less than one or
+     *  more than 2<sup>30</sup>.
+     */
+    public JSONKeyPool(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Bad capacity: " + capacity);
+        }
+        int size = Math.max(2, Integer.highestOneBit(capacity - 1) << 1);
+        this.slots = new AtomicReferenceArray<String>(size);
+        this.mask = (size - 1) & ~1;
+    }
+
+    /**
+     * Get the pooled String equal to a key, adding the key to the pool if
+     * there is none.
+     * @param key A key string.
+     * @return The pooled String, or the key itself if it was added.
+     */
+    public String intern(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        int i = (h << 1) & this.mask;
+        int stripe = stripe();
+
+        String first = this.slots.get(i);
+        if (key.equals(first)) {
+            this.counts.incrementAndGet(stripe);
+            return first;
+        }
+        String second = this.slots.get(i + 1);
+        if (key.equals(second)) {
+            this.counts.incrementAndGet(stripe);
+            return second;
+        }
+
+        // Races between threads can lose a key or keep one twice, which
+        // only costs a later miss.
+        this.slots.lazySet(i + 1, first);
+        this.slots.lazySet(i, key);
+        this.counts.incrementAndGet(stripe + 1);
+        return key;
+    }
+
+    /**
+     * Get the index of the current thread's hit counter. Thread ids are
+     * mostly small and sequential, so they are mixed before being reduced to
+     * a stripe.
+     * @return The counter index.
+     */
+    private static int stripe() {
+        long h = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        return ((int) (h >>> 32 ^ h) & (STRIPES - 1)) * PADDING;
+    }
+
+    /**
+     * Get the most keys the pool holds.
+     * @return The capacity of the pool.
+     */
+    public int capacity() {
+        return this.slots.length();
+    }
+
+    /**
+     * Get the number of lookups that found a pooled key.
+     * @return The number of hits.
+     */
+    public long hits() {
+        return sum(0);
+    }
+
+    /**
+     * Get the number of lookups that had to add the key.
+     * @return The number of misses.
+     */
+    public long misses() {
+        return sum(1);
+    }
+
+    /**
+     * Add up one counter over all stripes.
+     * @param offset 0 for hits, or 1 for misses.
+     * @return The total.
+     */
+    private long sum(int offset) {
+        long sum = 0;
+        for (int i = offset; i < this.counts.length(); i += PADDING) {
+            sum += this.counts.get(i);
+        }
+        return sum;
+    }
+}
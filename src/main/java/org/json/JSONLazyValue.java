@@ -0,0 +1,21 @@
+package org.json;
+/**
+ * The <code>JSONLazyValue</code> interface allows a value to be put into a
+ * <code>JSONObject</code> before it has been computed. Whenever the value is
+ * read from the <code>JSONObject</code>, through <code>opt</code>,
+ * <code>get</code>, any of the typed getters, <code>remove</code> or
+ * <code>toString()</code>, <code>getValue</code> is called and its result is
+ * returned instead. The <code>JSONLazyValue</code> itself stays in the
+ * <code>JSONObject</code>, which reading never changes; only
+ * <code>optUncomputed</code> returns it as is.
+ */
+public interface JSONLazyValue {
+    /**
+     * The <code>getValue</code> method computes the value this stands for.
+     * It may be called any number of times, from any number of threads, so
+     * an implementation should compute the value once and keep it.
+     *
+     * @return The value, which must not be a <code>JSONLazyValue</code>.
+     */
+    public Object getValue();
+}
@@ -95,9 +95,9 @@ import java.util.Set;
  */
 public class JSONObject {
     /**
-     * The maximum number of keys in the key pool.
+     * The number of keys in the default key pool.
      */
-     private static final int keyPoolSize = 100;
+     private static final int keyPoolSize = 1024;
 
    /**
      * Key pooling is like string interning, but without permanently tying up
@@ -105,7 +105,7 @@ public class JSONObject {
      * JSONObjects will be avoided by using a key pool to manage unique key
      * string objects. This is used by JSONObject.put(string, object).
      */
-     private static HashMap keyPool = new HashMap(keyPoolSize);
+     private static volatile JSONKeyPool keyPool = new JSONKeyPool(keyPoolSize);
 
     /**
      * JSONObject.NULL is equivalent to the value that JavaScript calls null,
@@ -598,6 +598,16 @@ public class JSONObject {
     }
 
 
+    /**
+     * Get the key pool shared by all JSONObjects.
+     *
+     * @return The key pool, or null if keys are not pooled.
+     */
+    public static JSONKeyPool getKeyPool() {
+        return keyPool;
+    }
+
+
     /**
      * Get an array of field names from a JSONObject.
      *
@@ -784,11 +794,31 @@ public class JSONObject {
 
 
     /**
-     * Get an optional value associated with a key.
+     * Get an optional value associated with a key. A JSONLazyValue is
+     * computed, but stays in the JSONObject, so reading never changes it.
      * @param key   A key string.
      * @return      An object which is the value, or null if there is no value.
      */
     public Object opt(String key) {
+        if (key == null) {
+            return null;
+        }
+        Object value = this.map.get(key);
+        if (value instanceof JSONLazyValue) {
+            value = ((JSONLazyValue) value).getValue();
+        }
+        return value;
+    }
+
+
+    /**
+     * Get an optional value associated with a key as it was put, without
+     * computing a JSONLazyValue, so that it can be moved to another
+     * JSONObject still uncomputed.
+     * @param key   A key string.
+     * @return      An object which is the value, or null if there is no value.
+     */
+    public Object optUncomputed(String key) {
         return key == null ? null : this.map.get(key);
     }
 
@@ -1122,20 +1152,14 @@ public class JSONObject {
      *  or if the key is null.
      */
     public JSONObject put(String key, Object value) throws JSONException {
-        String pooled;
         if (key == null) {
             throw new JSONException("Null key.");
         }
         if (value != null) {
             testValidity(value);
-            pooled = (String)keyPool.get(key);
-            if (pooled == null) {
-                if (keyPool.size() >= keyPoolSize) {
-                    keyPool = new HashMap(keyPoolSize);
-                }
-                keyPool.put(key, key);
-            } else {
-                key = pooled;
+            JSONKeyPool pool = keyPool;
+            if (pool != null) {
+                key = pool.intern(key);
             }
             this.map.put(key, value);
         } else {
@@ -1145,6 +1169,18 @@ public class JSONObject {
     }
 
 
+    /**
+     * Set the key pool shared by all JSONObjects, such as a larger one for
+     * documents that use many distinct keys. It can be set while other
+     * threads are putting keys; they switch to the new pool as they go.
+     *
+     * @param pool The key pool, or null to stop pooling keys.
+     */
+    public static void setKeyPool(JSONKeyPool pool) {
+        keyPool = pool;
+    }
+
+
     /**
      * Put a key/value pair in the JSONObject, but only if the key and the
      * value are both non-null, and only if there is not already a member
@@ -1263,13 +1299,17 @@ public class JSONObject {
     }
 
     /**
-     * Remove a name and its value, if present.
+     * Remove a name and its value, if present. A JSONLazyValue is computed.
      * @param key The name to be removed.
      * @return The value that was associated with the name,
      * or null if there was no value.
      */
     public Object remove(String key) {
-        return this.map.remove(key);
+        Object value = this.map.remove(key);
+        if (value instanceof JSONLazyValue) {
+            value = ((JSONLazyValue) value).getValue();
+        }
+        return value;
     }
 
     /**
@@ -1593,7 +1633,8 @@ public class JSONObject {
                 if (indentFactor > 0) {
                     writer.write(' ');
                 }
-                writeValue(writer, this.map.get(key), indentFactor, indent);
+                writeValue(writer, this.opt(key.toString()), indentFactor,
+                        indent);
             } else if (length != 0) {
                 final int newindent = indent + indentFactor;
                 while (keys.hasNext()) {
@@ -1610,7 +1651,7 @@ public class JSONObject {
                     if (indentFactor > 0) {
                         writer.write(' ');
                     }
-                    writeValue(writer, this.map.get(key), indentFactor,
+                    writeValue(writer, this.opt(key.toString()), indentFactor,
                             newindent);
                     commanate = true;
                 }
@@ -177,6 +177,56 @@ public class JSONTokener {
     }
 
 
+    /**
+     * Get the next characters in the source string in bulk, reading them
+     * into a buffer with a single call to the underlying reader.
+     *
+     * @param buffer The buffer to read characters into.
+     * @param offset The index in the buffer to start storing characters at.
+     * @param length The maximum number of characters to read.
+     * @return The number of characters read, or -1 if past the end of the
+     *  source string.
+     */
+    public int next(char[] buffer, int offset, int length)
+            throws JSONException {
+        if (length == 0) {
+            return 0;
+        }
+        int n = 0;
+        if (this.usePrevious) {
+            this.usePrevious = false;
+            buffer[offset] = this.previous;
+            n = 1;
+        } else {
+            try {
+                n = this.reader.read(buffer, offset, length);
+            } catch (IOException exception) {
+                throw new JSONException(exception);
+            }
+
+            if (n <= 0) { // End of stream
+                this.eof = true;
+                return -1;
+            }
+        }
+        for (int i = offset; i < offset + n; i += 1) {
+            char c = buffer[i];
+            if (this.previous == '\r') {
+                this.line += 1;
+                this.character = c == '\n' ? 0 : 1;
+            } else if (c == '\n') {
+                this.line += 1;
+                this.character = 0;
+            } else {
+                this.character += 1;
+            }
+            this.previous = c;
+        }
+        this.index += n;
+        return n;
+    }
+
+
     /**
      * Consume the next character, and check that it matches a specified
      * character.
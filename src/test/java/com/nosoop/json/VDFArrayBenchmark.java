@@ -0,0 +1,144 @@
+package com.nosoop.json;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Compares VDF array detection against the previous approach of parsing every
+ * key with Integer.parseInt and sorting the keys.
+ *
+ * Not run as part of the unit tests. After <code>mvn test-compile</code>, run
+ * with <pre>
+ * java -cp target/classes:target/test-classes com.nosoop.json.VDFArrayBenchmark [file]</pre>
+ * The sample file from the testfiles directory is used by default.
+ */
+public class VDFArrayBenchmark {
+
+    /**
+     * Number of passes over the sample file's objects per timed round.
+     */
+    private static final int PASSES = 2000;
+
+    public static void main(String[] args) throws IOException, JSONException {
+        Path file = Paths.get(args.length > 0 ? args[0]
+                : "testfiles/steam_getsupportedapilist.vdf");
+        List<JSONObject> objects = new ArrayList<JSONObject>();
+        collect(VDF.toJSONObject(file, false), objects);
+
+        System.out.println(objects.size() + " objects in " + file);
+
+        for (int round = 0; round < 5; round++) {
+            int arrays = 0;
+            long start = System.nanoTime();
+            for (int pass = 0; pass < PASSES; pass++) {
+                for (JSONObject object : objects) {
+                    if (legacyContainsVDFArray(object)) {
+                        legacyToVDFArray(object);
+                        arrays++;
+                    }
+                }
+            }
+            long legacy = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int pass = 0; pass < PASSES; pass++) {
+                for (JSONObject object : objects) {
+                    if (VDF.toVDFArray(object) != null) {
+                        arrays--;
+                    }
+                }
+            }
+            long slots = System.nanoTime() - start;
+
+            if (arrays != 0) {
+                throw new IllegalStateException("Detection results differ.");
+            }
+
+            System.out.printf("round %d: parseInt+sort %.1f ms, "
+                    + "digit scan+slots %.1f ms (%.1fx)%n", round,
+                    legacy / 1e6, slots / 1e6, (double) legacy / slots);
+        }
+    }
+
+    /**
+     * Gathers every JSONObject in a tree.
+     */
+    private static void collect(JSONObject object, List<JSONObject> out) {
+        out.add(object);
+        for (String name : (Set<String>) object.keySet()) {
+            JSONObject child = object.optJSONObject(name);
+            if (child != null) {
+                collect(child, out);
+            }
+        }
+    }
+
+    /**
+     * The previous array check, relying on NumberFormatException.
+     */
+    private static boolean legacyContainsVDFArray(JSONObject object) {
+        int indices = object.length();
+        int[] index = new int[indices];
+
+        for (int i = 0; i < indices; i++) {
+            index[i] = -1;
+        }
+
+        for (String name : (Set<String>) object.keySet()) {
+            if (object.optJSONObject(name) == null) {
+                return false;
+            }
+
+            try {
+                int i = Integer.parseInt(name);
+
+                if (i >= indices) {
+                    return false;
+                }
+
+                index[i] = i;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+
+        for (int i = 0; i < indices; i++) {
+            if (index[i] != i) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * The previous array conversion, sorting keys by their integer values.
+     */
+    private static JSONArray legacyToVDFArray(JSONObject object)
+            throws JSONException {
+        List<String> sortingKeys = new ArrayList(object.keySet());
+
+        if (sortingKeys.isEmpty()) {
+            return new JSONArray();
+        }
+
+        Collections.sort(sortingKeys, new Comparator<String>() {
+            @Override
+            public int compare(String t, String t1) {
+                int i = Integer.parseInt(t), i1 = Integer.parseInt(t1);
+                return i - i1;
+            }
+        });
+
+        return object.toJSONArray(new JSONArray(sortingKeys));
+    }
+}
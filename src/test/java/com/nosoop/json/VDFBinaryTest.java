@@ -0,0 +1,264 @@
+package com.nosoop.json;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Unit test for binary KeyValues conversion.
+ */
+public class VDFBinaryTest extends TestCase {
+
+    /**
+     * Create the test case.
+     *
+     * @param testName name of the test case
+     */
+    public VDFBinaryTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite(VDFBinaryTest.class);
+    }
+
+    /**
+     * Builds little-endian binary KeyValues for tests.
+     */
+    static class Builder {
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Builder type(int type, String key) throws Exception {
+            out.write(type);
+            return string(key);
+        }
+
+        Builder string(String s) throws Exception {
+            out.write(s.getBytes("UTF-8"));
+            out.write(0);
+            return this;
+        }
+
+        Builder bytes(int size, long value) {
+            ByteBuffer b = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            b.putLong(value);
+            out.write(b.array(), 0, size);
+            return this;
+        }
+
+        Builder end() {
+            out.write(VDFBinary.TYPE_END);
+            return this;
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Sample data in the layout of shortcuts.vdf, with every value type.
+     */
+    static byte[] sample() throws Exception {
+        return new Builder()
+                .type(VDFBinary.TYPE_NONE, "shortcuts")
+                .type(VDFBinary.TYPE_NONE, "0")
+                .type(VDFBinary.TYPE_STRING, "AppName").string("G\u00e4me")
+                .type(VDFBinary.TYPE_INT, "appid").bytes(4, -1234)
+                .type(VDFBinary.TYPE_FLOAT, "scale")
+                .bytes(4, Float.floatToIntBits(1.5f))
+                .type(VDFBinary.TYPE_UINT64, "steamid").bytes(8, 76561197960287930L)
+                .type(VDFBinary.TYPE_INT64, "delta").bytes(8, -5L)
+                .type(VDFBinary.TYPE_COLOR, "color").bytes(4, 0xFF00FF)
+                .type(VDFBinary.TYPE_NONE, "tags").end()
+                .end()
+                .end()
+                .end().toByteArray();
+    }
+
+    /**
+     * Values keep their native types.
+     */
+    public void testValueTypes() throws Exception {
+        JSONObject shortcut = VDFBinary.toJSONObject(ByteBuffer.wrap(sample()),
+                new VDFOptions()).getJSONObject("shortcuts").getJSONObject("0");
+
+        assertEquals("G\u00e4me", shortcut.get("AppName"));
+        assertEquals(Integer.valueOf(-1234), shortcut.get("appid"));
+        assertEquals(Float.valueOf(1.5f), shortcut.get("scale"));
+        assertEquals(BigInteger.valueOf(76561197960287930L),
+                shortcut.get("steamid"));
+        assertEquals(Long.valueOf(-5L), shortcut.get("delta"));
+        assertEquals(Integer.valueOf(0xFF00FF), shortcut.get("color"));
+        assertEquals(0, shortcut.getJSONObject("tags").length());
+    }
+
+    /**
+     * Streams and buffers give the same result, with array conversion.
+     */
+    public void testStreamInput() throws Exception {
+        VDFOptions options = new VDFOptions().setConvertArrays(true);
+        JSONObject jo = VDFBinary.toJSONObject(
+                new ByteArrayInputStream(sample()), options);
+
+        assertEquals(1, jo.getJSONArray("shortcuts").length());
+        VDFTest.assertSameJSON(jo,
+                VDFBinary.toJSONObject(ByteBuffer.wrap(sample()), options));
+    }
+
+    /**
+     * Truncated values, unclosed sets and unknown types are reported.
+     */
+    public void testMalformedInput() throws Exception {
+        byte[] data = sample();
+        try {
+            // Cut off in the middle of the "appid" integer.
+            VDFBinary.toJSONObject(ByteBuffer.wrap(data, 0, 38),
+                    new VDFOptions());
+            fail("Expected truncated input to fail.");
+        } catch (JSONException e) {
+            assertTrue(e.getMessage().startsWith("Unexpected end of input"));
+        }
+        try {
+            VDFBinary.toJSONObject(ByteBuffer.wrap(new byte[]{0x09, 'k', 0}),
+                    new VDFOptions());
+            fail("Expected unknown type to fail.");
+        } catch (JSONException e) {
+            assertTrue(e.getMessage().startsWith("Unknown type 0x09"));
+        }
+        try {
+            // A set that is never closed.
+            VDFBinary.toJSONObject(ByteBuffer.wrap(new byte[]{
+                0x00, 'r', 0, 0x01, 'k', 0, 'v', 0}), new VDFOptions());
+            fail("Expected an unclosed set to fail.");
+        } catch (JSONException e) {
+            assertTrue(e.getMessage().startsWith("Unexpected end of input"));
+        }
+    }
+
+    /**
+     * Writes a JSONObject as binary KeyValues into a buffer.
+     */
+    static ByteBuffer write(JSONObject jo) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VDFBinary.write(jo, out);
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    /**
+     * Written KeyValues read back to the same tree.
+     */
+    public void testRoundTrip() throws Exception {
+        VDFOptions options = new VDFOptions().setConvertArrays(true);
+        JSONObject jo = VDFBinary.toJSONObject(ByteBuffer.wrap(sample()),
+                options);
+
+        VDFTest.assertSameJSON(jo, VDFBinary.toJSONObject(write(jo), options));
+        // Key order isn't kept, but every value keeps its encoding.
+        assertEquals(sample().length, write(VDFBinary.toJSONObject(
+                ByteBuffer.wrap(sample()), new VDFOptions())).remaining());
+    }
+
+    /**
+     * Unsigned 64-bit integers read as BigIntegers and signed ones as Longs,
+     * whatever their value, so both keep their value and type through a
+     * round trip.
+     */
+    public void testLargeUnsigned() throws Exception {
+        byte[] data = new Builder()
+                .type(VDFBinary.TYPE_UINT64, "max").bytes(8, -1L)
+                .type(VDFBinary.TYPE_UINT64, "small").bytes(8, 5L)
+                .type(VDFBinary.TYPE_INT64, "signed").bytes(8, -1L)
+                .type(VDFBinary.TYPE_INT64, "positive").bytes(8, 5L)
+                .end().toByteArray();
+
+        JSONObject jo = VDFBinary.toJSONObject(ByteBuffer.wrap(data),
+                new VDFOptions());
+        assertEquals(new BigInteger("18446744073709551615"), jo.get("max"));
+        assertEquals(BigInteger.valueOf(5L), jo.get("small"));
+        assertEquals(Long.valueOf(-1L), jo.get("signed"));
+        assertEquals(Long.valueOf(5L), jo.get("positive"));
+
+        ByteBuffer written = write(jo);
+        assertEquals(data.length, written.remaining());
+        VDFTest.assertSameJSON(jo, VDFBinary.toJSONObject(written,
+                new VDFOptions()));
+    }
+
+    /**
+     * Values without an exact binary type are mapped to the nearest one.
+     */
+    public void testWriteConversions() throws Exception {
+        JSONObject jo = new JSONObject()
+                .put("flag", true)
+                .put("half", 0.5)
+                .put("third", 1.0 / 3)
+                .put("long", 7L)
+                .put("max_long", Long.MAX_VALUE)
+                .put("big", BigInteger.TEN)
+                .put("long_string", repeat('x', 10000) + "\u00e9")
+                .put("list", new JSONArray().put("a").put("b"));
+
+        JSONObject read = VDFBinary.toJSONObject(write(jo), new VDFOptions());
+        assertEquals(Integer.valueOf(1), read.get("flag"));
+        assertEquals(Float.valueOf(0.5f), read.get("half"));
+        assertEquals(Double.toString(1.0 / 3), read.get("third"));
+        assertEquals(Long.valueOf(7L), read.get("long"));
+        assertEquals(Long.valueOf(Long.MAX_VALUE), read.get("max_long"));
+        assertEquals(BigInteger.TEN, read.get("big"));
+        assertEquals(jo.get("long_string"), read.get("long_string"));
+        assertEquals("b", read.getJSONObject("list").get("1"));
+
+        // JSONArrays may hold non-finite numbers, which read back as Strings.
+        JSONArray nonFinite = new JSONArray()
+                .put(Double.valueOf(Double.NaN))
+                .put(Float.valueOf(Float.NaN))
+                .put(Double.valueOf(Double.NEGATIVE_INFINITY));
+        read = VDFBinary.toJSONObject(write(new JSONObject()
+                .put("nan", nonFinite)), new VDFOptions())
+                .getJSONObject("nan");
+        assertEquals("NaN", read.get("0"));
+        assertEquals("NaN", read.get("1"));
+        assertEquals("-Infinity", read.get("2"));
+
+        try {
+            write(new JSONObject().put("k", "a\u0000b"));
+            fail("Expected null character to be rejected.");
+        } catch (JSONException e) {
+        }
+    }
+
+    /**
+     * Deeply nested trees are written without recursion.
+     */
+    public void testWriteDeepNesting() throws Exception {
+        JSONObject root = new JSONObject(), jo = root;
+        for (int i = 0; i < 100000; i++) {
+            JSONObject child = new JSONObject();
+            jo.put("k", child);
+            jo = child;
+        }
+
+        JSONObject read = VDFBinary.toJSONObject(write(root), new VDFOptions());
+        assertTrue(read.getJSONObject("k").getJSONObject("k").has("k"));
+    }
+
+    static String repeat(char c, int n) {
+        char[] chars = new char[n];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
@@ -0,0 +1,187 @@
+package com.nosoop.json;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.json.JSONException;
+
+/**
+ * Unit test for the VDF pull parser.
+ */
+public class VDFReaderTest extends TestCase {
+
+    /**
+     * Create the test case.
+     *
+     * @param testName name of the test case
+     */
+    public VDFReaderTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite(VDFReaderTest.class);
+    }
+
+    /**
+     * Tokens are returned in document order.
+     */
+    public void testTokens() throws JSONException {
+        VDFReader reader = new VDFReader(new StringReader(
+                "\"a\" { \"b\" \"c\" // note\n \"d\" { } }"));
+
+        assertEquals(VDFReader.Token.KEY, reader.nextToken());
+        assertEquals("a", reader.getText());
+        assertEquals(VDFReader.Token.START_OBJECT, reader.nextToken());
+        assertEquals(1, reader.getDepth());
+        assertEquals(VDFReader.Token.KEY, reader.nextToken());
+        assertEquals(VDFReader.Token.VALUE, reader.nextToken());
+        assertEquals("c", reader.getText());
+        assertEquals(VDFReader.Token.KEY, reader.nextToken());
+        assertEquals("d", reader.getText());
+        assertEquals(VDFReader.Token.START_OBJECT, reader.nextToken());
+        assertEquals(VDFReader.Token.END_OBJECT, reader.nextToken());
+        assertEquals(VDFReader.Token.END_OBJECT, reader.nextToken());
+        assertEquals(0, reader.getDepth());
+        assertEquals(VDFReader.Token.EOF, reader.nextToken());
+        assertEquals(VDFReader.Token.EOF, reader.nextToken());
+    }
+
+    /**
+     * Skipped subtrees are passed over, even with malformed escapes in them.
+     */
+    public void testSkipChildren() throws JSONException {
+        VDFReader reader = new VDFReader(
+                "\"a\" { \"b\" { \"c\" \"\\q\" } } \"d\" \"e\"");
+
+        reader.nextToken();
+        assertEquals(VDFReader.Token.START_OBJECT, reader.nextToken());
+        reader.skipChildren();
+        assertEquals(VDFReader.Token.END_OBJECT, reader.getToken());
+        assertEquals(0, reader.getDepth());
+        assertEquals(VDFReader.Token.KEY, reader.nextToken());
+        assertEquals("d", reader.getText());
+        assertEquals(VDFReader.Token.VALUE, reader.nextToken());
+        assertEquals("e", reader.getText());
+    }
+
+    /**
+     * Skipping a subtree of fed input that runs out carries on once more
+     * input is fed.
+     */
+    public void testSkipChildrenFed() throws JSONException {
+        VDFByteLexer lexer = new VDFByteLexer();
+        VDFReader reader = new VDFReader(lexer);
+        lexer.feed(ByteBuffer.wrap("\"a\" { \"b\" { \"c\" \"d".getBytes()));
+
+        assertEquals(VDFReader.Token.KEY, reader.nextToken());
+        assertEquals(VDFReader.Token.START_OBJECT, reader.nextToken());
+        reader.skipChildren();
+        assertNull(reader.getToken());
+        assertNull(reader.nextToken());
+
+        lexer.feed(ByteBuffer.wrap("\" } } \"e\" \"f\"".getBytes()));
+        assertEquals(VDFReader.Token.END_OBJECT, reader.nextToken());
+        assertEquals(0, reader.getDepth());
+        lexer.endOfInput();
+        assertEquals(VDFReader.Token.KEY, reader.nextToken());
+        assertEquals("e", reader.getText());
+        assertEquals(VDFReader.Token.VALUE, reader.nextToken());
+        assertEquals(VDFReader.Token.EOF, reader.nextToken());
+    }
+
+    /**
+     * A long String fed in small chunks is scanned once, carrying escape
+     * sequences cut off by the end of a chunk over to the next one.
+     */
+    public void testLongStringFed() throws JSONException {
+        StringBuilder sb = new StringBuilder("\"k\" \"");
+        for (int i = 0; i < 100000; i++) {
+            sb.append(i % 3 == 0 ? "\\\"" : "x");
+        }
+        byte[] data = sb.append("\"").toString().getBytes();
+
+        VDFByteLexer lexer = new VDFByteLexer();
+        VDFReader reader = new VDFReader(lexer);
+        List<String> texts = new ArrayList<String>();
+        for (int i = 0; i < data.length + 3; i += 3) {
+            if (i < data.length) {
+                lexer.feed(ByteBuffer.wrap(data, i,
+                        Math.min(3, data.length - i)));
+            } else {
+                lexer.endOfInput();
+            }
+            for (VDFReader.Token t; (t = reader.nextToken()) != null
+                    && t != VDFReader.Token.EOF;) {
+                texts.add(reader.getText());
+            }
+        }
+
+        assertEquals(2, texts.size());
+        assertEquals("k", texts.get(0));
+        assertEquals(100000, texts.get(1).length());
+        assertEquals("\"xx\"", texts.get(1).substring(0, 4));
+    }
+
+    public void testConditionals() throws JSONException {
+        String vdf = "\"a\" \"1\" [$WIN32]\n"
+                + "\"b\" \"2\" [$X360]\n"
+                + "\"c\" [!$WIN32] { \"\\q\" { } }\n"
+                + "\"d\" [$osx || ($WIN32 && !$X360)] { \"e\" \"3\" }\n"
+                + "\"f\" [$X360] \"4\" [$WIN32]\n"
+                + "\"g\" \"5\" // [$X360]\n"
+                + "[$WIN32]";
+        VDFReader reader = new VDFReader(vdf)
+                .setSymbols(Arrays.asList("$WIN32", "Linux"));
+        List<String> texts = new ArrayList<String>();
+        while (reader.nextToken() != VDFReader.Token.EOF) {
+            texts.add(reader.getToken() + " " + reader.getText());
+        }
+
+        assertEquals(Arrays.asList("KEY a", "VALUE 1", "KEY d",
+                "START_OBJECT null", "KEY e", "VALUE 3", "END_OBJECT null",
+                "KEY g", "VALUE 5"), texts);
+
+        String[] malformed = {"\"a\" \"b\" [$A", "\"a\" \"b\" [$A &&]",
+            "\"a\" \"b\" [($A]", "\"a\" \"b\" [$A)]", "\"a\" \"b\" []",
+            "\"a\" [$A] [$B] \"b\"", "[$A] \"a\" \"b\""};
+        for (String s : malformed) {
+            reader = new VDFReader(s);
+            try {
+                while (reader.nextToken() != VDFReader.Token.EOF) {
+                }
+                fail(s);
+            } catch (JSONException e) {
+            }
+        }
+    }
+
+    /**
+     * Counting the interfaces in the sample file without decoding them.
+     */
+    public void testSampleFile() throws IOException, JSONException {
+        VDFReader reader = new VDFReader(VDFTest.API_LIST_VDF.toPath());
+        int interfaces = 0;
+
+        while (reader.nextToken() != VDFReader.Token.EOF) {
+            if (reader.getToken() == VDFReader.Token.START_OBJECT
+                    && reader.getDepth() == 3) {
+                interfaces++;
+                reader.skipChildren();
+            }
+        }
+
+        assertEquals(VDF.toJSONObject(VDFTest.API_LIST_VDF.toPath(), true)
+                .getJSONObject("apilist").getJSONArray("interfaces").length(),
+                interfaces);
+    }
+}
@@ -1,14 +1,51 @@
 package com.nosoop.json;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONKeyPool;
+import org.json.JSONLazyValue;
+import org.json.JSONObject;
+import org.json.JSONTokener;
 
 /**
  * Unit test for VDF-JSON conversion.
  */
 public class VDFTest extends TestCase {
 
+    /**
+     * Sample VDF file shipped with the project.
+     */
+    static final File API_LIST_VDF =
+            new File("testfiles/steam_getsupportedapilist.vdf");
+
     /**
      * Create the test case.
      *
@@ -25,10 +62,1117 @@ public class VDFTest extends TestCase {
         return new TestSuite(VDFTest.class);
     }
 
+    /**
+     * Reads a test file into a String.
+     */
+    static String readFile(File file) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        Reader reader = new InputStreamReader(new FileInputStream(file),
+                "UTF-8");
+        try {
+            char[] buf = new char[4096];
+            int n;
+            while ((n = reader.read(buf)) > 0) {
+                sb.append(buf, 0, n);
+            }
+        } finally {
+            reader.close();
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Asserts that two JSON values have the same contents, regardless of key
+     * order.
+     */
+    static void assertSameJSON(Object expected, Object actual)
+            throws JSONException {
+        if (expected instanceof JSONObject) {
+            assertTrue("Expected object, got " + actual,
+                    actual instanceof JSONObject);
+            JSONObject e = (JSONObject) expected, a = (JSONObject) actual;
+            assertEquals(e.keySet(), a.keySet());
+            for (String key : (Set<String>) e.keySet()) {
+                assertSameJSON(e.get(key), a.get(key));
+            }
+        } else if (expected instanceof JSONArray) {
+            assertTrue("Expected array, got " + actual,
+                    actual instanceof JSONArray);
+            assertEquals(expected.getClass(), actual.getClass());
+            JSONArray e = (JSONArray) expected, a = (JSONArray) actual;
+            assertEquals(e.length(), a.length());
+            for (int i = 0; i < e.length(); i++) {
+                assertSameJSON(e.get(i), a.get(i));
+            }
+        } else {
+            assertEquals(expected, actual);
+        }
+    }
+
     /**
      * Testing
      */
     public void testApp() {
         assertTrue(true);
     }
+
+    /**
+     * Nested KeyValues, comments and escape sequences.
+     */
+    public void testKeyValues() throws JSONException {
+        String vdf = "// Leading comment\n"
+                + "\"root\"\n{\n"
+                + "\t\"name\"\t\"value\" // Trailing comment\n"
+                + "\t\"escaped\"\t\"a\\\"b\\\\c\\nd\\te\"\n"
+                + "\t\"nested\" // Comment between key and value\n"
+                + "\t{\n\t\t\"empty\"\t\"\"\n\t}\n"
+                + "}\n";
+
+        JSONObject root = VDF.toJSONObject(vdf, false).getJSONObject("root");
+
+        assertEquals("value", root.getString("name"));
+        assertEquals("a\"b\\c\nd\te", root.getString("escaped"));
+        assertEquals("", root.getJSONObject("nested").getString("empty"));
+    }
+
+    /**
+     * Partial input still produces whatever data was read.
+     */
+    public void testPartialInput() throws JSONException {
+        JSONObject jo = VDF.toJSONObject("\"a\" { \"b\" \"c\" \"d\"", false);
+
+        assertEquals("c", jo.getJSONObject("a").getString("b"));
+        assertFalse(jo.getJSONObject("a").has("d"));
+    }
+
+    /**
+     * Unexpected characters are reported.
+     */
+    public void testSyntaxError() {
+        try {
+            VDF.toJSONObject("\"a\" { \"b\" \"c\" }\n{", false);
+            fail("Expected a syntax error.");
+        } catch (JSONException e) {
+            assertTrue(e.getMessage().startsWith("Unexpected character '{'"));
+            assertTrue(e.getMessage().endsWith("line 2]"));
+        }
+    }
+
+    /**
+     * Array conversion on the sample file.
+     */
+    public void testConvertArrays() throws IOException, JSONException {
+        JSONObject jo = VDF.toJSONObject(readFile(API_LIST_VDF), true);
+        JSONArray interfaces = jo.getJSONObject("apilist")
+                .getJSONArray("interfaces");
+
+        assertEquals("IGCVersion_205790",
+                interfaces.getJSONObject(0).getString("name"));
+        assertEquals(0, interfaces.getJSONObject(0).getJSONArray("methods")
+                .getJSONObject(0).getJSONArray("parameters").length());
+    }
+
+    /**
+     * Elements of an array stay JSONObjects even if they look like arrays,
+     * and out-of-order keys still make an array.
+     */
+    public void testConvertNestedArrays() throws JSONException {
+        JSONObject jo = VDF.toJSONObject("\"a\" { \"0\" { \"0\" { } } }"
+                + "\"b\" { \"1\" { \"k\" \"y\" } \"0\" { \"k\" \"x\" } }"
+                + "\"c\" { \"0\" \"v\" \"0\" { } }", true);
+
+        JSONObject element = jo.getJSONArray("a").getJSONObject(0);
+        assertEquals(0, element.getJSONArray("0").length());
+        assertEquals("x", jo.getJSONArray("b").getJSONObject(0).getString("k"));
+        assertEquals("y", jo.getJSONArray("b").getJSONObject(1).getString("k"));
+        assertEquals(1, jo.getJSONArray("c").length());
+    }
+
+    /**
+     * Array keys are read the way Integer.parseInt reads them.
+     */
+    public void testParseIndex() {
+        assertEquals(0, VDF.parseIndex("0", 1));
+        assertEquals(0, VDF.parseIndex("-0", 1));
+        assertEquals(1, VDF.parseIndex("+1", 2));
+        assertEquals(7, VDF.parseIndex("007", 8));
+        assertEquals(-1, VDF.parseIndex("8", 8));
+        assertEquals(-1, VDF.parseIndex("-1", 8));
+        assertEquals(-1, VDF.parseIndex("", 8));
+        assertEquals(-1, VDF.parseIndex("-", 8));
+        assertEquals(-1, VDF.parseIndex("name", 8));
+        assertEquals(-1, VDF.parseIndex("99999999999", Integer.MAX_VALUE));
+    }
+
+    /**
+     * Deeply nested input doesn't overflow the call stack, with or without
+     * array conversion.
+     */
+    public void testDeepNesting() throws JSONException {
+        final int depth = 100000;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            sb.append("\"0\" { ");
+        }
+        for (int i = 0; i < depth; i++) {
+            sb.append("} ");
+        }
+
+        JSONObject jo = VDF.toJSONObject(sb.toString(), false);
+        assertTrue(jo.getJSONObject("0").getJSONObject("0").has("0"));
+
+        // Array-shaped sets alternate between arrays and their elements.
+        jo = VDF.toJSONObject(sb.toString(), true);
+        assertTrue(jo.getJSONArray("0").getJSONObject(0).getJSONArray("0")
+                .getJSONObject(0).has("0"));
+    }
+
+    /**
+     * Nesting beyond the configured limit is rejected.
+     */
+    public void testMaxDepth() throws JSONException {
+        String vdf = "\"a\" { \"b\" { \"c\" { } } }";
+        VDFOptions options = new VDFOptions().setMaxDepth(3);
+
+        assertTrue(VDF.toJSONObject(vdf, options).has("a"));
+        try {
+            VDF.toJSONObject(vdf, options.setMaxDepth(2));
+            fail("Expected nesting to be too deep.");
+        } catch (JSONException e) {
+            assertTrue(e.getMessage().startsWith("Nesting too deep"));
+        }
+    }
+
+    /**
+     * Unquoted keys and values end at whitespace, quotes, braces and
+     * conditionals, whatever the input.
+     */
+    public void testUnquoted() throws IOException, JSONException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            sb.append('x');
+        }
+        String vdf = "Resource/UI.res\n{\n\tname Foo//comment\n"
+                + "\txpos\t10\n\t\"q\"r\"s\"t\n\tpath C:\\a\\b\n"
+                + "\tskip [$X360] 5\n\tkeep 6[!$X360]\n\tlong " + sb
+                + "\n\tsub{a/b c/}\n}";
+        JSONObject expected = new JSONObject().put("Resource/UI.res",
+                new JSONObject().put("name", "Foo").put("xpos", "10")
+                .put("q", "r").put("s", "t").put("path", "C:\\a\\b")
+                .put("keep", "6").put("long", sb.toString())
+                .put("sub", new JSONObject().put("a/b", "c/")));
+
+        assertEquals(expected.toString(), VDF.toJSONObject(vdf, false)
+                .toString());
+        assertEquals(expected.toString(), VDF.toJSONObject(new JSONTokener(
+                new StringReader(vdf)), false).toString());
+        assertEquals(expected.toString(), VDF.toJSONObject(ByteBuffer.wrap(
+                vdf.getBytes("UTF-8")), false).toString());
+
+        RecordingHandler handler = new RecordingHandler();
+        VDF.parse(new JSONTokener(new StringReader("a b //tail")), handler);
+        assertEquals(Arrays.asList("a=b", "//tail"), handler.events);
+    }
+
+    /**
+     * A conditional after a KeyValue set's closing brace applies to the whole
+     * set, in every conversion, and a rejected set doesn't replace an
+     * earlier value with the same key.
+     */
+    public void testTrailingConditional() throws IOException, JSONException {
+        String vdf = "\"a\" { \"k\" \"v\" } [$X360]\n"
+                + "\"b\" { \"c\" { } [!$X360] \"d\" { } [$X360] }\n"
+                + "\"e\" \"1\" \"e\" { \"k\" \"2\" } [$X360]\n"
+                + "\"f\" { \"k\" \"3\" } [!$X360 && !$PS3]";
+        JSONObject pc = new JSONObject()
+                .put("b", new JSONObject().put("c", new JSONObject()))
+                .put("e", "1")
+                .put("f", new JSONObject().put("k", "3"));
+        JSONObject x360 = new JSONObject()
+                .put("a", new JSONObject().put("k", "v"))
+                .put("b", new JSONObject().put("d", new JSONObject()))
+                .put("e", new JSONObject().put("k", "2"));
+        Set<String> symbols = new HashSet<String>(Arrays.asList("X360"));
+
+        for (int i = 0; i < 2; i++) {
+            VDFOptions options = new VDFOptions();
+            JSONObject expected = pc;
+            if (i == 1) {
+                options.setSymbols(symbols);
+                expected = x360;
+            }
+            assertSameJSON(expected, VDF.toJSONObject(vdf, options));
+            assertSameJSON(expected, VDF.toJSONObject(ByteBuffer.wrap(
+                    vdf.getBytes("UTF-8")), options));
+
+            StringWriter sw = new StringWriter();
+            VDF.toJSON(vdf, sw, options);
+            assertSameJSON(expected, new JSONObject(sw.toString()));
+            sw = new StringWriter();
+            VDF.toJSON(new VDFReader(new StringReader(vdf)), sw, options);
+            assertSameJSON(expected, new JSONObject(sw.toString()));
+        }
+        assertSameJSON(pc, VDF.toJSONObject(new JSONTokener(
+                new StringReader(vdf)), false));
+
+        assertSameJSON(new JSONObject().put("e", "1"), VDF.select(vdf, "e"));
+        assertSameJSON(new JSONObject().put("b", new JSONObject()
+                .put("c", new JSONObject())), VDF.select(vdf, "b/*"));
+        assertSameJSON(new JSONObject().put("e", "1"),
+                VDF.select(vdf, "e/k", "e"));
+        assertSameJSON(new JSONObject(), VDF.select(vdf, "a/k"));
+    }
+
+    /**
+     * Typed values become the numbers and Booleans they look like, from text
+     * and from bytes, and anything a number can't reproduce stays a String.
+     */
+    public void testTypedValues() throws IOException, JSONException {
+        Object[] cases = {
+            "0", 0, "-12", -12, "2147483648", 2147483648L,
+            "9223372036854775807", Long.MAX_VALUE,
+            "-9223372036854775808", Long.MIN_VALUE,
+            "9223372036854775808", "9223372036854775808",
+            "-9223372036854775809", "-9223372036854775809",
+            "123456789012345678901", "123456789012345678901",
+            "1.5", 1.5, "-0.25", -0.25, "6.02e23", 6.02e23, "1E-3", 1e-3, "1.5e1", 15.0,
+            "3.14159265358979323846", 3.14159265358979323846,
+            "1e999", "1e999", "TRUE", true, "false", false,
+            "007", "007", "+1", "+1", "-0", "-0", ".5", ".5", "5.", "5.",
+            "1e", "1e", "12ab", "12ab", "truth", "truth", "", "",
+            "\\n1", "\n1"
+        };
+        VDFOptions options = new VDFOptions().setTypedValues(true);
+
+        for (int i = 0; i < cases.length; i += 2) {
+            String vdf = "\"v\" \"" + cases[i] + "\"";
+            Object expected = cases[i + 1];
+            assertEquals(vdf, expected, VDF.toJSONObject(vdf, options)
+                    .get("v"));
+            assertEquals(vdf, expected, VDF.toJSONObject(ByteBuffer.wrap(
+                    vdf.getBytes("UTF-8")), options).get("v"));
+        }
+
+        Random random = new Random(19);
+        for (int i = 0; i < 10000; i++) {
+            String text = (random.nextInt(1000000) - 500000) + "."
+                    + random.nextInt(1000000)
+                    + (i % 2 == 0 ? "" : "e" + (random.nextInt(40) - 20));
+            assertEquals(text, Double.valueOf(text), VDF.toJSONObject(
+                    "v " + text, options).get("v"));
+        }
+
+        assertEquals("1", VDF.toJSONObject("v 1", false).get("v"));
+        StringWriter sw = new StringWriter();
+        VDF.toJSON("a { b 2 c 1.5 }", sw, options);
+        assertEquals("{\"a\":{\"b\":2,\"c\":1.5}}", sw.toString());
+    }
+
+    /**
+     * Reading through a JSONTokener gives the same result as a String.
+     */
+    public void testTokenerInput() throws IOException, JSONException {
+        String vdf = readFile(API_LIST_VDF);
+
+        assertSameJSON(VDF.toJSONObject(vdf, true),
+                VDF.toJSONObject(new JSONTokener(new StringReader(vdf)), true));
+    }
+
+    /**
+     * Parsing a memory-mapped file gives the same result as a String.
+     */
+    public void testPathInput() throws IOException, JSONException {
+        assertSameJSON(VDF.toJSONObject(readFile(API_LIST_VDF), true),
+                VDF.toJSONObject(API_LIST_VDF.toPath(), true));
+    }
+
+    /**
+     * UTF-8 input is decoded, and a leading byte order mark is skipped.
+     */
+    public void testByteBufferInput() throws IOException, JSONException {
+        String vdf = "\uFEFF\"n\u00e4me\" { \"k\" \"\u65e5\\\"\u672c\" }";
+        JSONObject jo = VDF.toJSONObject(
+                ByteBuffer.wrap(vdf.getBytes("UTF-8")), false);
+
+        assertEquals("\u65e5\"\u672c",
+                jo.getJSONObject("n\u00e4me").getString("k"));
+    }
+
+    /**
+     * Selecting paths keeps only what they match, along with the KeyValue sets
+     * leading to it.
+     */
+    public void testSelect() throws IOException, JSONException {
+        String vdf = readFile(API_LIST_VDF);
+        JSONObject interfaces = VDF.toJSONObject(vdf, false)
+                .getJSONObject("apilist").getJSONObject("interfaces");
+
+        JSONObject names = new JSONObject();
+        for (String index : JSONObject.getNames(interfaces)) {
+            names.put(index, new JSONObject().put("name",
+                    interfaces.getJSONObject(index).getString("name")));
+        }
+        JSONObject expected = new JSONObject().put("apilist",
+                new JSONObject().put("interfaces", names));
+        assertSameJSON(expected,
+                VDF.select(vdf, "apilist/interfaces/*/name"));
+        assertSameJSON(expected, VDF.select(API_LIST_VDF.toPath(),
+                "apilist/interfaces/*/name", "apilist/missing"));
+
+        // A path ending at a KeyValue set copies all of it.
+        expected = new JSONObject().put("apilist", new JSONObject()
+                .put("interfaces", new JSONObject()
+                        .put("1", interfaces.getJSONObject("1"))));
+        assertSameJSON(expected, VDF.select(vdf, "apilist/interfaces/1",
+                "apilist/interfaces/1/name"));
+
+        String escaped = "a { \"k\\\"\" 1 k 2 \"n\u00e4me\" { x 3 } }";
+        assertEquals("{\"a\":{\"k\":\"2\"}}",
+                VDF.select(escaped, "a/k").toString());
+        assertEquals("{\"a\":{\"n\u00e4me\":{\"x\":\"3\"}}}",
+                VDF.select(ByteBuffer.wrap(escaped.getBytes("UTF-8")),
+                        "*/n\u00e4me").toString());
+        assertEquals("{}", VDF.select(escaped, "b").toString());
+
+        try {
+            VDF.select(vdf, "apilist//name");
+            fail("Empty key accepted");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    /**
+     * Repeated keys keep every value in order when asked to, and are written
+     * back as repeated keys.
+     */
+    public void testPreserveDuplicates() throws IOException, JSONException {
+        VDFOptions options = new VDFOptions().setPreserveDuplicates(true)
+                .setConvertArrays(true).setLazyValues(true);
+        String vdf = "\"items\" { \"item\" { \"0\" { } \"1\" { } }"
+                + " \"name\" \"a\" \"item\" \"b\" \"item\" { \"x\" \"1\" } }"
+                + " \"list\" { \"0\" { } \"0\" { } }";
+
+        JSONObject jo = VDF.toJSONObject(vdf, options);
+        JSONObject items = jo.getJSONObject("items");
+        assertEquals("a", items.get("name"));
+        VDFMultiValue item = (VDFMultiValue) items.get("item");
+        assertEquals(3, item.length());
+        // Array-shaped sets among the values are still converted.
+        assertEquals(2, item.getJSONArray(0).length());
+        assertEquals("b", item.get(1));
+        assertEquals("1", item.getJSONObject(2).get("x"));
+        // Repeated indices rule out an array.
+        assertTrue(jo.getJSONObject("list").get("0")
+                instanceof VDFMultiValue);
+
+        // Other sets are the same as without the option.
+        String api = readFile(API_LIST_VDF);
+        assertSameJSON(VDF.toJSONObject(api, true),
+                VDF.toJSONObject(api, options));
+
+        options.setConvertArrays(false);
+        assertEquals(VDF.toJSONObject(vdf, options).toString(),
+                VDF.toJSONObject(VDF.toVDF(VDF.toJSONObject(vdf, options)),
+                        options).toString());
+        assertEquals("1", VDF.toJSONObject(vdf, false)
+                .getJSONObject("items").getJSONObject("item").get("x"));
+    }
+
+    /**
+     * Lazy values read the same as decoded ones, and are only decoded when
+     * read.
+     */
+    public void testLazyValues() throws IOException, JSONException {
+        String vdf = readFile(API_LIST_VDF);
+        VDFOptions options = new VDFOptions().setConvertArrays(true)
+                .setLazyValues(true);
+        String expected = VDF.toJSONObject(vdf, true).toString();
+
+        assertEquals(expected, VDF.toJSONObject(vdf, options).toString());
+        assertEquals(expected, VDF.toJSONObject(ByteBuffer.wrap(
+                vdf.getBytes("UTF-8")), options).toString());
+        assertEquals(expected, VDF.toJSONObject(API_LIST_VDF.toPath(),
+                options).toString());
+
+        byte[] data = ("\"a\" { \"b\" \"c\u00e9\" \"d\" \"e\\\"\""
+                + " \"f\" \"g\" }").getBytes("UTF-8");
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data);
+        direct.flip();
+        JSONObject jo = VDF.toJSONObject(direct, options).getJSONObject("a");
+        assertEquals("c\u00e9", jo.optString("b"));
+        assertEquals("e\"", jo.get("d"));
+        assertEquals("g", jo.remove("f"));
+        // Reading decodes once, and leaves the lazy value where it is.
+        assertSame(jo.get("b"), jo.get("b"));
+        assertTrue(jo.optUncomputed("b") instanceof JSONLazyValue);
+
+        // Only the value that wasn't escaped still refers to the input.
+        data = "a b c \"d\\\\\"".getBytes("UTF-8");
+        jo = VDF.toJSONObject(ByteBuffer.wrap(data), options);
+        data[2] = 'x';
+        data[8] = 'x';
+        assertEquals("x", jo.get("a"));
+        assertEquals("d\\", jo.get("c"));
+
+        try {
+            VDF.toJSONObject("\"a\" \"\\q\"", options);
+            fail();
+        } catch (JSONException e) {
+        }
+    }
+
+    /**
+     * Records handler events as Strings.
+     */
+    static class RecordingHandler implements VDFHandler {
+
+        final List<String> events = new ArrayList<String>();
+
+        @Override
+        public void startObject(String key) {
+            events.add("start " + key);
+        }
+
+        @Override
+        public void keyValue(String key, String value) {
+            events.add(key + "=" + value);
+        }
+
+        @Override
+        public void endObject() {
+            events.add("end");
+        }
+
+        @Override
+        public void comment(String text) {
+            events.add("//" + text);
+        }
+    }
+
+    /**
+     * Streaming events arrive in document order.
+     */
+    public void testHandler() throws JSONException {
+        RecordingHandler handler = new RecordingHandler();
+        VDF.parse("\"a\" // note\r\n{ \"b\" \"c\\n\" \"d\" { \"e\" \"f\" } }",
+                handler);
+
+        assertEquals(Arrays.asList("// note", "start a", "b=c\n", "start d",
+                "e=f", "end", "end"), handler.events);
+    }
+
+    /**
+     * Streaming events stay balanced when the input ends early.
+     */
+    public void testHandlerPartialInput() throws JSONException {
+        RecordingHandler handler = new RecordingHandler();
+        VDF.parse(ByteBuffer.wrap("\"a\" { \"b\" { \"c\"".getBytes()), handler);
+
+        assertEquals(Arrays.asList("start a", "start b", "end", "end"),
+                handler.events);
+    }
+
+    /**
+     * Written VDF text reads back to the same tree, arrays included.
+     */
+    public void testWriteRoundTrip() throws IOException, JSONException {
+        JSONObject jo = VDF.toJSONObject(readFile(API_LIST_VDF), true);
+
+        assertSameJSON(jo, VDF.toJSONObject(VDF.toVDF(jo), true));
+    }
+
+    /**
+     * Written Strings are escaped, and non-String values are stringified.
+     */
+    public void testWrite() throws JSONException {
+        JSONObject jo = new JSONObject().put("a", new JSONObject()
+                .put("q\"uote", "tab\tnew\nline\\")
+                .put("n", 2.5)
+                .put("list", new JSONArray().put(true)));
+
+        assertEquals("\"a\"\n{\n"
+                + "\t\"q\\\"uote\"\t\t\"tab\\tnew\\nline\\\\\"\n"
+                + "}\n", VDF.toVDF(new JSONObject().put("a", new JSONObject()
+                .put("q\"uote", "tab\tnew\nline\\"))));
+
+        JSONObject read = VDF.toJSONObject(VDF.toVDF(jo), false)
+                .getJSONObject("a");
+        assertEquals("tab\tnew\nline\\", read.getString("q\"uote"));
+        assertEquals("2.5", read.getString("n"));
+        assertEquals("true", read.getJSONObject("list").getString("0"));
+
+        assertEquals("\"nan\"\n{\n\t\"0\"\t\t\"NaN\"\n"
+                + "\t\"1\"\t\t\"Infinity\"\n}\n", VDF.toVDF(new JSONObject()
+                .put("nan", new JSONArray().put(Float.valueOf(Float.NaN))
+                .put(Double.valueOf(Double.POSITIVE_INFINITY)))));
+    }
+
+    /**
+     * Reformatting through a VDFWriter keeps comments and content.
+     */
+    public void testWriterHandler() throws JSONException {
+        StringWriter sw = new StringWriter();
+        VDF.parse("// note\n\"a\" { \"b\" \"c\" }", new VDFWriter(sw));
+
+        assertEquals("// note\n\"a\"\n{\n\t\"b\"\t\t\"c\"\n}\n",
+                sw.toString());
+    }
+
+    /**
+     * Transcodes VDF text to JSON text and parses the result.
+     */
+    static JSONObject transcode(String vdf, boolean convertArrays)
+            throws JSONException {
+        StringWriter sw = new StringWriter();
+        VDF.toJSON(vdf, sw,
+                new VDFOptions().setConvertArrays(convertArrays));
+        return new JSONObject(sw.toString());
+    }
+
+    /**
+     * Streaming conversion to JSON text matches the tree conversion.
+     */
+    public void testTranscode() throws IOException, JSONException {
+        String vdf = readFile(API_LIST_VDF);
+        assertSameJSON(VDF.toJSONObject(vdf, false), transcode(vdf, false));
+        assertSameJSON(VDF.toJSONObject(vdf, true), transcode(vdf, true));
+
+        vdf = "\"a\" { \"0\" { \"0\" { } } }"
+                + "\"b\" { \"1\" { \"k\" \"y\" } \"0\" { \"k\" \"x\" } }"
+                + "\"c\" { \"0\" { } \"2\" { } }"
+                + "\"d\" { \"0\" { \"0\" { } } \"k\" \"v\" \"1\" { } }"
+                + "\"e\" { \"0\" { } \"00\" { } }";
+        assertSameJSON(VDF.toJSONObject(vdf, true), transcode(vdf, true));
+    }
+
+    /**
+     * Duplicate keys are handled as in the tree conversion, whether the last
+     * value is kept or all of them are, whether the input is text, bytes or
+     * a Reader, and whether or not the keys are escaped or ASCII.
+     */
+    public void testTranscodeDuplicateKey() throws IOException,
+            JSONException {
+        String vdf = "\"a\" { \"0\" \"v\" \"0\" { } }"
+                + "\"b\" { \"0\" { \"k\" \"x\" } \"k\" \"1\""
+                + " \"0\" { \"0\" { } \"k\" \"y\" \"k\" \"z\" }"
+                + " \"k\" \"2\" \"1\" { } }"
+                + "\"c\" { \"0\" { } } \"a\" \"last\""
+                + "\"d\" { \"x\ty\" \"1\" \"\u00e9\" \"2\" \"x\\ty\" \"3\""
+                + " \"\u00e9\" \"4\" \"\\\\\" \"5\" \"\\\\\" \"6\" }";
+
+        for (int mode = 0; mode < 4; mode++) {
+            VDFOptions options = new VDFOptions()
+                    .setConvertArrays((mode & 1) != 0)
+                    .setPreserveDuplicates((mode & 2) != 0);
+            // JSON text has no VDFMultiValues, only JSONArrays.
+            JSONObject expected = new JSONObject(
+                    VDF.toJSONObject(vdf, options).toString());
+
+            StringWriter sw = new StringWriter();
+            VDF.toJSON(vdf, sw, options);
+            assertSameJSON(expected, new JSONObject(sw.toString()));
+
+            sw = new StringWriter();
+            VDF.toJSON(new VDFReader(new StringReader(vdf)), sw, options);
+            assertSameJSON(expected, new JSONObject(sw.toString()));
+
+            sw = new StringWriter();
+            VDF.toJSON(new VDFReader(ByteBuffer.wrap(vdf.getBytes("UTF-8"))),
+                    sw, options);
+            assertSameJSON(expected, new JSONObject(sw.toString()));
+        }
+    }
+
+    /**
+     * Converts JSON text to VDF text through the streaming transcoder.
+     */
+    static String transcodeJSON(String json) throws JSONException {
+        StringWriter sw = new StringWriter();
+        VDF.write(new JSONTokener(json), sw);
+        return sw.toString();
+    }
+
+    /**
+     * Streaming conversion from JSON text matches writing a JSONObject.
+     */
+    public void testTranscodeJSON() throws IOException, JSONException {
+        JSONObject jo = VDF.toJSONObject(readFile(API_LIST_VDF), true);
+        assertSameJSON(jo, VDF.toJSONObject(transcodeJSON(jo.toString(2)),
+                true));
+
+        String json = "{\"a\": [1, 2.5, true, \"s\", [], {\"k\": \"v\"}],"
+                + " 'b' : {\"c\": \"\\u00e9\\n\"}, d => 3;}";
+        assertSameJSON(VDF.toJSONObject(VDF.toVDF(new JSONObject(json)), true),
+                VDF.toJSONObject(transcodeJSON(json), true));
+        assertEquals("\"a\"\n{\n\t\"0\"\t\t\"1\"\n}\n",
+                transcodeJSON("{\"a\": [1]}"));
+
+        try {
+            transcodeJSON("{\"a\": null}");
+            fail("Expected a null value to be rejected.");
+        } catch (JSONException e) {
+            assertTrue(e.getMessage().startsWith("Null value"));
+        }
+        try {
+            transcodeJSON("{\"a\": [1 \"2\"]}");
+            fail("Expected a syntax error.");
+        } catch (JSONException e) {
+            assertTrue(e.getMessage().startsWith("Expected a ',' or ']'"));
+        }
+    }
+
+    /**
+     * Parsing on a pool gives the same result and errors as parsing on the
+     * calling thread.
+     */
+    public void testParallel() throws IOException, JSONException {
+        StringBuilder sb = new StringBuilder("\"apps\"\n{\n");
+        for (int i = 0; i < 20000; i++) {
+            sb.append("\t\"").append(i).append("\"\n\t{\n")
+                    .append("\t\t\"name\"\t\t\"App ").append(i).append("\"\n")
+                    .append("\t\t\"depots\" { \"0\" { \"id\" \"1\" } }\n")
+                    .append("\t}\n");
+        }
+        sb.append("\t\"5\" { \"name\" \"Duplicate\" }\n")
+                .append("\t\"6\" { \"name\" \"Console\" } [$X360]\n}\n");
+        String vdf = sb.toString();
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int mode = 0; mode < 4; mode++) {
+                VDFOptions options = new VDFOptions()
+                        .setConvertArrays((mode & 1) != 0)
+                        .setPreserveDuplicates((mode & 2) != 0);
+                JSONObject expected = VDF.toJSONObject(vdf, options);
+                options.setPool(pool);
+
+                assertSameJSON(expected, VDF.toJSONObject(vdf, options));
+                assertSameJSON(expected, VDF.toJSONObject(
+                        ByteBuffer.wrap(vdf.getBytes("UTF-8")), options));
+            }
+
+            String broken = vdf.replace("App 19000", "App \\19000");
+            try {
+                VDF.toJSONObject(broken, new VDFOptions().setPool(pool));
+                fail("Expected a syntax error.");
+            } catch (JSONException e) {
+                try {
+                    VDF.toJSONObject(broken, false);
+                } catch (JSONException expected) {
+                    assertEquals(expected.getMessage(), e.getMessage());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Batches convert every file, reporting broken ones without stopping.
+     */
+    public void testConvertAll() throws Exception {
+        Path dir = Files.createTempDirectory("vdf");
+        final Map<Path, Object> results =
+                new ConcurrentHashMap<Path, Object>();
+        List<Path> paths = new ArrayList<Path>();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            for (int i = 0; i < 50; i++) {
+                Path path = dir.resolve(i + ".acf");
+                String vdf = i == 7 ? "\"broken\" \"\\q\""
+                        : "\"AppState\" { \"appid\" \"" + i + "\" }";
+                Files.write(path, vdf.getBytes("UTF-8"));
+                paths.add(path);
+            }
+            paths.add(dir.resolve("missing.acf"));
+
+            VDF.convertAll(paths, executor, new VDFOptions(), 3,
+                    new VDFBatchHandler() {
+                @Override
+                public void converted(Path path, JSONObject result) {
+                    results.put(path, result);
+                }
+
+                @Override
+                public void failed(Path path, Exception error) {
+                    results.put(path, error);
+                }
+            });
+
+            assertEquals(paths.size(), results.size());
+            assertEquals("3", ((JSONObject) results.get(paths.get(3)))
+                    .getJSONObject("AppState").getString("appid"));
+            assertTrue(results.get(paths.get(7)) instanceof JSONException);
+            assertTrue(results.get(paths.get(50)) instanceof IOException);
+        } finally {
+            executor.shutdown();
+            for (Path path : paths) {
+                Files.deleteIfExists(path);
+            }
+            Files.delete(dir);
+        }
+    }
+
+    /**
+     * Feeds bytes to an incremental parser in chunks of a given size.
+     */
+    static List<String> feed(byte[] data, int chunkSize)
+            throws JSONException {
+        RecordingHandler handler = new RecordingHandler();
+        VDFIncrementalParser parser = new VDFIncrementalParser(handler);
+        for (int i = 0; i < data.length; i += chunkSize) {
+            ByteBuffer chunk = ByteBuffer.wrap(data, i,
+                    Math.min(chunkSize, data.length - i));
+            parser.feed(chunk);
+            assertFalse(chunk.hasRemaining());
+        }
+        parser.endOfInput();
+        return handler.events;
+    }
+
+    /**
+     * Input split at any byte gives the same events and errors as input that
+     * arrives at once.
+     */
+    public void testIncrementalParser() throws IOException, JSONException {
+        String[] documents = {
+            "\uFEFF// h\u00e9ader\r\n\"a\" { \"b\\\"\" \"\u65e5\\n\" }"
+                    + "// tail",
+            "\"a\" { \"b\" { \"c\"",
+            "\"a\" { \"b\" \"unterminated\\",
+            "\"a\" { \"b\" \"c\" }\n} \"ignored\" \"x\"",
+            "\"a\"\n{\n\t\"b\" \"\\q\"\n}",
+            "\"a\" / \"b\"",
+            "\"a\" [!$X360] { \"b\" \"c\" [$X360] // x\n\"d\" \"e\" }"
+                    + " \"f\" [$X360] { \"g\" { } } \"h\" \"i\" [!$X]",
+            "\"a\" { \"b\" { } [$X360] } [!$X360]\"c\" { }[$X] \"d\" { }",
+            "a{b c/d//e\nf \u00e9}g h[$X]i",
+            "a b/"
+        };
+
+        for (String document : documents) {
+            byte[] data = document.getBytes("UTF-8");
+            RecordingHandler expected = new RecordingHandler();
+            String error = null;
+            try {
+                VDF.parse(ByteBuffer.wrap(data), expected);
+            } catch (JSONException e) {
+                error = e.getMessage();
+            }
+
+            for (int size = 1; size <= data.length; size++) {
+                try {
+                    assertEquals(expected.events, feed(data, size));
+                    assertNull(error);
+                } catch (JSONException e) {
+                    assertEquals(error, e.getMessage());
+                }
+            }
+        }
+
+        byte[] sample = readFile(API_LIST_VDF).getBytes("UTF-8");
+        RecordingHandler expected = new RecordingHandler();
+        VDF.parse(ByteBuffer.wrap(sample), expected);
+        assertEquals(expected.events, feed(sample, 100));
+    }
+
+    public void testIncludes() throws IOException, JSONException {
+        Path dir = Files.createTempDirectory("vdf");
+        Path base = dir.resolve("base.res");
+        Path included = dir.resolve("included.res");
+        Path main = dir.resolve("main.res");
+        Path cycle = dir.resolve("cycle.res");
+        Path sub = dir.resolve("sub");
+        Path part = sub.resolve("part.res");
+        Path nested = sub.resolve("nested.res");
+
+        try {
+            Files.write(base, ("\"Scheme\" { \"Colors\" { \"White\" \"255\""
+                    + " \"Black\" \"0\" } \"Fonts\" { \"Default\" \"Tahoma\" }"
+                    + " \"List\" { \"0\" { } } }").getBytes("UTF-8"));
+            Files.write(included, "\"Extra\" \"1\" \"Scheme\" { \"No\" \"\" }"
+                    .getBytes("UTF-8"));
+            Files.write(main, ("#base \"base.res\"\n#include \"included.res\"\n"
+                    + "\"Scheme\" { \"Colors\" { \"White\" \"250\" }"
+                    + " \"List\" { \"1\" { } } }").getBytes("UTF-8"));
+            Files.write(cycle, "#base \"cycle.res\"".getBytes("UTF-8"));
+
+            VDFIncludeCache cache = new VDFIncludeCache(dir);
+            VDFOptions options = new VDFOptions().setIncludes(cache);
+            JSONObject result = VDF.toJSONObject(main, options);
+            JSONObject scheme = result.getJSONObject("Scheme");
+            assertEquals("1", result.getString("Extra"));
+            assertFalse(scheme.has("No"));
+            assertEquals("250", scheme.getJSONObject("Colors")
+                    .getString("White"));
+            assertEquals("0", scheme.getJSONObject("Colors")
+                    .getString("Black"));
+            assertEquals("Tahoma", scheme.getJSONObject("Fonts")
+                    .getString("Default"));
+
+            // Cached files are copied, never shared with results.
+            scheme.getJSONObject("Fonts").put("Default", "Arial");
+            result = VDF.toJSONObject("#base \"base.res\"", options
+                    .setConvertArrays(true));
+            assertEquals("Tahoma", result.getJSONObject("Scheme")
+                    .getJSONObject("Fonts").getString("Default"));
+
+            // Arrays are converted after merging.
+            result = VDF.toJSONObject(main, options);
+            assertEquals(2, result.getJSONObject("Scheme")
+                    .getJSONArray("List").length());
+
+            // Changed files are parsed again.
+            Files.write(base, "\"Scheme\" { \"Colors\" { \"Black\" \"1\" } }"
+                    .getBytes("UTF-8"));
+            Files.setLastModifiedTime(base, FileTime.fromMillis(
+                    Files.getLastModifiedTime(base).toMillis() + 10000));
+            result = VDF.toJSONObject(main, options);
+            assertEquals("1", result.getJSONObject("Scheme")
+                    .getJSONObject("Colors").getString("Black"));
+
+            try {
+                VDF.toJSONObject(cycle, options);
+                fail();
+            } catch (JSONException e) {
+                assertTrue(e.getMessage().startsWith("Circular #base"));
+            }
+
+            // Files are included relative to the including file, wherever
+            // the base directory is.
+            Files.createDirectory(sub);
+            Files.write(part, "\"Part\" \"sub\"".getBytes("UTF-8"));
+            Files.write(nested, "#include \"part.res\"".getBytes("UTF-8"));
+            assertEquals("sub", VDF.toJSONObject(nested, options)
+                    .getString("Part"));
+
+            // Symbols match the cached file ignoring case and dollar signs.
+            Files.write(part, "\"Part\" \"win\" [$WIN32]".getBytes("UTF-8"));
+            Files.setLastModifiedTime(part, FileTime.fromMillis(
+                    Files.getLastModifiedTime(part).toMillis() + 10000));
+            assertFalse(VDF.toJSONObject(nested, options).has("Part"));
+            options.setSymbols(Collections.singleton("win32"));
+            assertEquals("win", VDF.toJSONObject(nested, options)
+                    .getString("Part"));
+            assertEquals("win", VDF.toJSONObject(nested, options
+                    .setSymbols(Collections.singleton("$WIN32")))
+                    .getString("Part"));
+
+            try {
+                VDF.toJSONObject(main, new VDFOptions());
+                fail();
+            } catch (JSONException e) {
+                assertTrue(e.getMessage().startsWith("Unresolved #base"));
+            }
+
+            try {
+                VDF.toJSONObject("\"a\" { #include \"included.res\" }",
+                        options);
+                fail();
+            } catch (JSONException e) {
+            }
+        } finally {
+            for (Path path : Arrays.asList(base, included, main, cycle, part,
+                    nested, sub)) {
+                Files.deleteIfExists(path);
+            }
+            Files.delete(dir);
+        }
+    }
+
+    /**
+     * Indexed entries parse the same as in the whole file, and the index is
+     * saved and rebuilt once the file changes.
+     */
+    public void testIndex() throws IOException, JSONException {
+        Path dir = Files.createTempDirectory("vdf");
+        Path path = dir.resolve("apps.vdf");
+        Path saved = dir.resolve("apps.vdf.idx");
+
+        try {
+            Files.write(path, ("// apps\n\"version\" \"3\"\n"
+                    + "\"apps\" { \"440\" { \"name\" \"TF2\" } // c\n"
+                    + "\"570\" { \"name\" \"Dota\" } \"count\" \"2\" }\n"
+                    + "\"dup\" { \"a\" \"1\" } \"dup\" { \"b\" \"2\" }\n"
+                    + readFile(API_LIST_VDF)).getBytes("UTF-8"));
+            JSONObject whole = VDF.toJSONObject(path, false);
+
+            VDFIndex index = VDFIndex.open(path);
+            assertTrue(Files.exists(saved));
+            assertEquals("3", index.get("version"));
+            assertEquals("2", index.get("apps/count"));
+            assertNull(index.get("apps/730"));
+            assertFalse(index.has("dup/a"));
+            for (String entry : index.paths()) {
+                String[] keys = entry.split("/");
+                Object expected = whole.get(keys[0]);
+                if (keys.length > 1) {
+                    expected = ((JSONObject) expected).get(keys[1]);
+                }
+                assertSameJSON(expected, index.get(entry));
+            }
+            assertEquals(2, ((JSONObject) VDFIndex.open(path)
+                    .get("apilist/interfaces", new VDFOptions()
+                            .setConvertArrays(false))).getJSONObject("1")
+                    .length());
+
+            Files.write(path, "\"apps\" { \"730\" { } }".getBytes("UTF-8"));
+            Files.setLastModifiedTime(path, FileTime.fromMillis(
+                    Files.getLastModifiedTime(path).toMillis() + 10000));
+            assertFalse(index.has("apps/440"));
+            assertEquals(0, ((JSONObject) index.get("apps/730")).length());
+            assertEquals(2, VDFIndex.open(path).paths().size());
+
+            // Slashes in keys are escaped, and conditionals are evaluated
+            // for each lookup.
+            Files.write(path, ("\"a/b\" { \"c\\\\d\" \"1\" }\n"
+                    + "\"os\" \"win\" [$WIN32]\n\"os\" \"other\" [!$WIN32]\n"
+                    + "\"cfg\" { \"k\" \"y\" }\n"
+                    + "\"cfg\" [$X360] { \"k\" \"x\" \"pad\" \"1\" }\n"
+                    + "\"tail\" { \"k\" \"t\" } [$X360]\n")
+                    .getBytes("UTF-8"));
+            Files.setLastModifiedTime(path, FileTime.fromMillis(
+                    Files.getLastModifiedTime(path).toMillis() + 20000));
+            assertEquals("a\\/b/c\\\\d", VDFIndex.path("a/b", "c\\d"));
+            assertEquals("1", index.get(VDFIndex.path("a/b", "c\\d")));
+            assertFalse(index.has("a"));
+
+            VDFOptions options = new VDFOptions();
+            for (int i = 0; i < 2; i++) {
+                index = VDFIndex.open(path);
+                JSONObject parsed = VDF.toJSONObject(path, options);
+                assertEquals(parsed.get("os"), index.get("os", options));
+                JSONObject cfg = parsed.getJSONObject("cfg");
+                assertEquals(cfg.get("k"), index.get("cfg/k", options));
+                assertEquals(cfg.opt("pad"), index.get("cfg/pad", options));
+                assertSameJSON(cfg, index.get("cfg", options));
+                JSONObject tail = parsed.optJSONObject("tail");
+                assertSameJSON(tail, index.get("tail", options));
+                assertEquals(tail == null ? null : tail.get("k"),
+                        index.get("tail/k", options));
+                options.setSymbols(new HashSet<String>(
+                        Arrays.asList("WIN32", "x360")));
+            }
+        } finally {
+            Files.deleteIfExists(path);
+            Files.deleteIfExists(saved);
+            Files.delete(dir);
+        }
+    }
+
+    /**
+     * Cached results load the same as parsed ones, are parsed again once the
+     * file changes, and are trimmed to the size limit.
+     */
+    public void testCache() throws IOException, JSONException {
+        Path dir = Files.createTempDirectory("vdf");
+        Path snapshots = dir.resolve("cache");
+        Path path = dir.resolve("api.vdf");
+        Path other = dir.resolve("other.vdf");
+
+        try {
+            Files.write(path, readFile(API_LIST_VDF).getBytes("UTF-8"));
+            Files.write(other, "\"a\" { \"b\" \"true\" \"c\" \"0.1\" }"
+                    .getBytes("UTF-8"));
+            VDFCache cache = new VDFCache(snapshots, 1 << 20);
+            VDFOptions options = new VDFOptions().setConvertArrays(true)
+                    .setCache(cache);
+            JSONObject expected = VDF.toJSONObject(path, true);
+
+            assertSameJSON(expected, VDF.toJSONObject(path, options));
+            assertEquals(1, snapshots.toFile().list().length);
+            assertSameJSON(expected, VDF.toJSONObject(path, options));
+            assertEquals(expected.toString(),
+                    VDF.toJSONObject(path, options).toString());
+
+            // Types are kept, and other options get their own snapshot.
+            options.setTypedValues(true).setLazyValues(true);
+            for (int i = 0; i < 2; i++) {
+                JSONObject a = VDF.toJSONObject(other, options)
+                        .getJSONObject("a");
+                assertEquals(Boolean.TRUE, a.get("b"));
+                assertEquals(0.1, a.get("c"));
+            }
+            assertEquals(2, snapshots.toFile().list().length);
+
+            Files.write(other, "\"a\" { \"b\" \"2\" }".getBytes("UTF-8"));
+            Files.setLastModifiedTime(other, FileTime.fromMillis(
+                    Files.getLastModifiedTime(other).toMillis() + 10000));
+            assertEquals(2, VDF.toJSONObject(other, options)
+                    .getJSONObject("a").get("b"));
+
+            // Older snapshots make room for new ones.
+            long limit = Files.size(path);
+            cache = new VDFCache(snapshots, limit);
+            options.setCache(cache).setConvertArrays(false)
+                    .setTypedValues(false);
+            assertSameJSON(VDF.toJSONObject(path, false),
+                    VDF.toJSONObject(path, options));
+            long total = 0;
+            for (File file : snapshots.toFile().listFiles()) {
+                total += file.length();
+            }
+            assertTrue(total <= limit);
+            assertTrue(snapshots.toFile().list().length < 3);
+        } finally {
+            for (File file : snapshots.toFile().listFiles()) {
+                Files.delete(file.toPath());
+            }
+            Files.delete(snapshots);
+            Files.delete(path);
+            Files.delete(other);
+            Files.delete(dir);
+        }
+    }
+
+    /**
+     * Documents parsed on several threads at once share their keys through
+     * the key pool.
+     */
+    public void testKeyPool() throws Exception {
+        assertEquals(2, new JSONKeyPool(1).capacity());
+        assertEquals(1024, new JSONKeyPool(1000).capacity());
+
+        final String vdf = readFile(API_LIST_VDF);
+        JSONKeyPool previous = JSONObject.getKeyPool();
+        JSONKeyPool pool = new JSONKeyPool(256);
+        JSONObject.setKeyPool(pool);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            List<Future<JSONObject>> results =
+                    new ArrayList<Future<JSONObject>>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(new Callable<JSONObject>() {
+                    @Override
+                    public JSONObject call() throws JSONException {
+                        return VDF.toJSONObject(vdf, true);
+                    }
+                }));
+            }
+
+            String expected = VDF.toJSONObject(vdf, true).toString();
+            for (Future<JSONObject> result : results) {
+                assertEquals(expected, result.get().toString());
+            }
+            assertTrue(pool.hits() > pool.misses());
+
+            // Keys interned once are shared.
+            String key = new String("apilist");
+            assertSame(pool.intern("apilist"), pool.intern(key));
+            String[] names = JSONObject.getNames(new JSONObject()
+                    .put(new String("apilist"), ""));
+            assertSame(pool.intern("apilist"), names[0]);
+
+            // Without a pool, keys are stored as given.
+            JSONObject.setKeyPool(null);
+            assertSame(key, JSONObject.getNames(new JSONObject()
+                    .put(key, ""))[0]);
+        } finally {
+            JSONObject.setKeyPool(previous);
+            executor.shutdown();
+        }
+    }
 }